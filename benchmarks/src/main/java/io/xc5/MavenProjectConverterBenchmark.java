@@ -0,0 +1,83 @@
+package io.xc5;
+
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Project model hot paths of MavenProjectConverter over synthetic reactors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MavenProjectConverterBenchmark {
+
+  @Param({"10", "500", "5000"})
+  int moduleCount;
+
+  @Param({"500"})
+  int jarCount;
+
+  private SyntheticReactor reactor;
+  private MavenProjectConverter converter;
+  private MavenProject rootModule;
+  private List<File> sourceDirs;
+  private List<String> sourceRoots;
+  private List<Path> basedirs;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    reactor = new SyntheticReactor(moduleCount, jarCount);
+    converter = new MavenProjectConverter(new SilentLog(), new Properties(), null);
+    rootModule = SyntheticReactor.module("root", reactor.root.toFile());
+    reactor.addJars(rootModule);
+    // Source roots of every module plus a nested generated one, as seen on a flattened aggregate
+    sourceDirs = new ArrayList<>();
+    sourceRoots = new ArrayList<>();
+    basedirs = new ArrayList<>();
+    for (MavenProject module : reactor.modules) {
+      File srcDir = new File(module.getBasedir(), "src/main/java");
+      sourceDirs.add(srcDir);
+      sourceDirs.add(new File(srcDir, "generated"));
+      sourceRoots.add(srcDir.getAbsolutePath());
+      basedirs.add(module.getBasedir().toPath().toAbsolutePath());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reactor.delete();
+  }
+
+  @Benchmark
+  public List<File> removeNested() {
+    return MavenProjectConverter.removeNested(sourceDirs);
+  }
+
+  @Benchmark
+  public Path findCommonParentDir() {
+    Path common = basedirs.get(0);
+    for (Path basedir : basedirs) {
+      common = MavenProjectConverter.findCommonParentDir(common, basedir);
+    }
+    return common;
+  }
+
+  @Benchmark
+  public List<File> sourcePaths() throws Exception {
+    return converter.sourcePaths(rootModule, MavenProjectConverter.PROJECT_SOURCE_DIRS, new ArrayList<>(sourceRoots));
+  }
+
+  @Benchmark
+  public List<String> populateLibraries() throws Exception {
+    return converter.populateLibraries(rootModule, false);
+  }
+}
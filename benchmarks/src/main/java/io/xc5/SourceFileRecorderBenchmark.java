@@ -0,0 +1,67 @@
+package io.xc5;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Merging the module source lists and writing the srclist, for reactors of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceFileRecorderBenchmark {
+
+  private static final int FILES_PER_MODULE = 20;
+
+  @Param({"10", "500", "5000"})
+  int moduleCount;
+
+  private File srcListFile;
+  private File[] moduleLists;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    srcListFile = File.createTempFile("xvsa-bench", ".srclist.json");
+    moduleLists = new File[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      JSONArray files = new JSONArray();
+      for (int j = 0; j < FILES_PER_MODULE; j++) {
+        files.put("/work/repository/group-" + (i / 50) + "/module-" + i + "/src/main/java/io/xc5/bench/Class" + j + ".java");
+      }
+      moduleLists[i] = File.createTempFile("xvsa-bench-module-" + i, ".srclist.json");
+      Files.write(moduleLists[i].toPath(), files.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void clean() {
+    srcListFile.delete();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    srcListFile.delete();
+    for (File one : moduleLists) {
+      one.delete();
+    }
+  }
+
+  @Benchmark
+  public File mergeSourceLists() throws Exception {
+    SourceFileRecorder recorder = new SourceFileRecorder(srcListFile.getAbsolutePath(), new SilentLog());
+    for (File one : moduleLists) {
+      recorder.mergeSourceList(one);
+    }
+    recorder.finish();
+    return srcListFile;
+  }
+}
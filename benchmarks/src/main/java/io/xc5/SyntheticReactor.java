@@ -0,0 +1,94 @@
+package io.xc5;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/***
+ * A reactor of generated modules on disk, used as benchmark input.
+ * Layout : root/group-i/module-j/{src/main/java,target/classes}, plus a directory of jars.
+ */
+public class SyntheticReactor {
+
+  private static final int MODULES_PER_GROUP = 50;
+
+  final Path root;
+  final List<MavenProject> modules = new ArrayList<>();
+  final List<File> jars = new ArrayList<>();
+
+  /***
+   * @param moduleCount number of modules
+   * @param jarCount number of jars on the class path of every module
+   */
+  SyntheticReactor(int moduleCount, int jarCount) throws IOException {
+    root = Files.createTempDirectory("xvsa-bench");
+    for (int i = 0; i < moduleCount; i++) {
+      File basedir = root.resolve("group-" + (i / MODULES_PER_GROUP)).resolve("module-" + i).toFile();
+      Files.createDirectories(new File(basedir, "src/main/java").toPath());
+      Files.createDirectories(new File(basedir, "target/classes").toPath());
+      modules.add(module("module-" + i, basedir));
+    }
+    File jarDir = root.resolve("repository").toFile();
+    Files.createDirectories(jarDir.toPath());
+    for (int i = 0; i < jarCount; i++) {
+      File jar = new File(jarDir, "library-" + i + "-1.0.jar");
+      Files.write(jar.toPath(), new byte[0]);
+      jars.add(jar);
+    }
+  }
+
+  static MavenProject module(String artifactId, File basedir) {
+    Model model = new Model();
+    model.setGroupId("io.xc5.bench");
+    model.setArtifactId(artifactId);
+    model.setVersion("1.0");
+    model.setPackaging("jar");
+    Build build = new Build();
+    build.setDirectory(new File(basedir, "target").getAbsolutePath());
+    build.setOutputDirectory(new File(basedir, "target/classes").getAbsolutePath());
+    build.setTestOutputDirectory(new File(basedir, "target/test-classes").getAbsolutePath());
+    model.setBuild(build);
+    MavenProject project = new MavenProject(model);
+    project.setFile(new File(basedir, "pom.xml"));
+    project.addCompileSourceRoot(new File(basedir, "src/main/java").getAbsolutePath());
+    return project;
+  }
+
+  /*** Put all jars of the reactor on the compile class path of the module ***/
+  void addJars(MavenProject project) {
+    DefaultArtifactHandler handler = new DefaultArtifactHandler("jar");
+    handler.setAddedToClasspath(true);
+    Set<Artifact> artifacts = new LinkedHashSet<>();
+    for (File jar : jars) {
+      DefaultArtifact artifact = new DefaultArtifact("io.xc5.bench.lib", jar.getName(), "1.0",
+        Artifact.SCOPE_COMPILE, "jar", null, handler);
+      artifact.setFile(jar);
+      artifacts.add(artifact);
+    }
+    project.setArtifacts(artifacts);
+  }
+
+  List<File> basedirs() {
+    List<File> dirs = new ArrayList<>();
+    for (MavenProject module : modules) {
+      dirs.add(module.getBasedir());
+    }
+    return dirs;
+  }
+
+  void delete() throws IOException {
+    Files.walk(root)
+      .sorted(Comparator.reverseOrder())
+      .map(Path::toFile)
+      .forEach(File::delete);
+  }
+}
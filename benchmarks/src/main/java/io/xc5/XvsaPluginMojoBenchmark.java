@@ -0,0 +1,88 @@
+package io.xc5;
+
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Module lookup and library selection of XvsaPluginMojo over synthetic reactors.
+ * The reactor index and the library registry are built once per build, their cost is
+ * measured apart from the lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XvsaPluginMojoBenchmark {
+
+  @Param({"10", "500", "5000"})
+  int moduleCount;
+
+  @Param({"500"})
+  int jarCount;
+
+  private SyntheticReactor reactor;
+  private ReactorIndex reactorIndex;
+  private File lastModuleDir;
+  private String[] libJarFilter;
+  private List<String> classPath;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    reactor = new SyntheticReactor(moduleCount, jarCount);
+    reactorIndex = new ReactorIndex(reactor.modules);
+    // The worst case, the module is the last one scanned
+    lastModuleDir = reactor.modules.get(reactor.modules.size() - 1).getBasedir();
+    libJarFilter = new String[]{"spring-", "jackson-", "guava-", "library-4"};
+    classPath = new ArrayList<>();
+    for (File jar : reactor.jars) {
+      classPath.add(jar.getAbsolutePath());
+    }
+    for (MavenProject module : reactor.modules) {
+      reactor.addJars(module);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reactor.delete();
+  }
+
+  @Benchmark
+  public MavenProject findMavenProject() {
+    return reactorIndex.find(lastModuleDir);
+  }
+
+  @Benchmark
+  public ReactorIndex buildReactorIndex() {
+    return new ReactorIndex(reactor.modules);
+  }
+
+  @Benchmark
+  public int isLibrarySelected() {
+    int selected = 0;
+    for (File jar : reactor.jars) {
+      if (XvsaPluginMojo.isLibrarySelected(jar, libJarFilter, true)) {
+        selected++;
+      }
+    }
+    return selected;
+  }
+
+  /*** Every module depends on every jar, each jar is canonicalized and stat-ed once ***/
+  @Benchmark
+  public LibraryRegistry buildLibraryRegistry() {
+    LibraryRegistry registry = new LibraryRegistry(libJarFilter, true, new SilentLog());
+    for (MavenProject module : reactor.modules) {
+      registry.register(module.getArtifactId(), module, classPath);
+    }
+    return registry;
+  }
+}
@@ -0,0 +1,233 @@
+package io.xc5;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/***
+ * The files changed by a pull request, and the modules to scan for them.
+ * A changed file belongs to the module with the deepest source root, class
+ * directory or base directory holding it. The modules depending on a changed
+ * module, directly or not, are scanned too, their analysis sees the changed
+ * classes. A change of the POM of an aggregator module selects all the modules
+ * under its base directory, they may inherit from it.
+ */
+public class ChangeSet {
+
+  private final List<Path> files;
+
+  private ChangeSet(List<Path> files) {
+    this.files = files;
+  }
+
+  /***
+   * Read the changed files given by xvsa.changed and xvsa.since.
+   * @param changed comma separated paths, or @file with one path per line, may be null
+   * @param since git revision, the files changed since the merge base with it are added, may be null
+   * @param baseDir directory relative paths of xvsa.changed are resolved against
+   * @return the change set
+   */
+  public static ChangeSet of(String changed, String since, File baseDir) throws MojoExecutionException {
+    Set<Path> files = new LinkedHashSet<>();
+    if (changed != null && !changed.trim().isEmpty()) {
+      for (String path : listed(changed.trim())) {
+        files.add(resolve(baseDir.toPath(), path));
+      }
+    }
+    if (since != null && !since.trim().isEmpty()) {
+      files.addAll(gitChanges(since.trim(), baseDir));
+    }
+    return new ChangeSet(new ArrayList<>(files));
+  }
+
+  /*** Changed files, absolute ***/
+  public List<Path> getFiles() {
+    return files;
+  }
+
+  private static List<String> listed(String changed) throws MojoExecutionException {
+    List<String> paths = new ArrayList<>();
+    if (changed.startsWith("@")) {
+      File listFile = new File(changed.substring(1));
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), StandardCharsets.UTF_8))) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          line = line.trim();
+          if (!line.isEmpty() && !line.startsWith("#")) {
+            paths.add(line);
+          }
+        }
+      } catch (IOException e) {
+        throw new XvsaPluginException("Cannot read changed files list : " + listFile.getPath(), e);
+      }
+    } else {
+      for (String path : changed.split(",")) {
+        if (!path.trim().isEmpty()) {
+          paths.add(path.trim());
+        }
+      }
+    }
+    return paths;
+  }
+
+  /***
+   * Files changed on the current branch since it forked from the revision, committed
+   * or not, and the untracked files not ignored by git.
+   */
+  private static List<Path> gitChanges(String since, File baseDir) throws MojoExecutionException {
+    Path topLevel = Paths.get(git(baseDir, "rev-parse", "--show-toplevel").trim());
+    String mergeBase = git(baseDir, "merge-base", since, "HEAD").trim();
+    List<Path> changes = new ArrayList<>();
+    for (String output : Arrays.asList(
+      git(baseDir, "diff", "--name-only", "-z", mergeBase),
+      git(baseDir, "ls-files", "--others", "--exclude-standard", "--full-name", "-z"))) {
+      for (String path : output.split("\0")) {
+        if (!path.isEmpty()) {
+          changes.add(resolve(topLevel, path));
+        }
+      }
+    }
+    return changes;
+  }
+
+  private static String git(File dir, String... arguments) throws MojoExecutionException {
+    List<String> command = new ArrayList<>();
+    command.add("git");
+    command.addAll(Arrays.asList(arguments));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int exitCode;
+    try {
+      Process process = new ProcessBuilder(command).directory(dir)
+        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      try (InputStream in = process.getInputStream()) {
+        byte[] buffer = new byte[65536];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+          output.write(buffer, 0, read);
+        }
+      }
+      exitCode = process.waitFor();
+    } catch (IOException e) {
+      throw new XvsaPluginException("Cannot run git, needed by xvsa.since", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while running git");
+    }
+    if (exitCode != 0) {
+      throw new MojoExecutionException("git " + String.join(" ", arguments) + " failed with exit code " + exitCode);
+    }
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static Path resolve(Path base, String path) {
+    return base.resolve(path).toAbsolutePath().normalize();
+  }
+
+  /***
+   * Select the modules owning a changed file, and the modules depending on them.
+   * @param modules modules of the reactor, the result keeps their order
+   * @param propsByModule properties of each module
+   * @param logger logger
+   * @return the modules to scan
+   */
+  public List<MavenProject> select(List<MavenProject> modules, Map<MavenProject, ModuleDescriptor> propsByModule, Log logger) {
+    PathTrie<MavenProject> owners = new PathTrie<>();
+    // Base directories first, the roots of a module override the base directory of a parent holding them
+    for (MavenProject module : modules) {
+      own(owners, module.getBasedir().toPath(), module);
+    }
+    for (MavenProject module : modules) {
+      ModuleDescriptor properties = propsByModule.get(module);
+      String binDir = properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS);
+      if (binDir != null) {
+        own(owners, Paths.get(binDir), module);
+      }
+      for (String srcDir : properties.getSourceDirs()) {
+        own(owners, Paths.get(srcDir), module);
+      }
+    }
+    Set<MavenProject> changedModules = new HashSet<>();
+    Set<MavenProject> changedAggregators = new HashSet<>();
+    for (Path file : files) {
+      MavenProject owner = owners.longestPrefixValue(file);
+      if (owner == null) {
+        logger.debug("Changed file outside of the modules : " + file);
+        continue;
+      }
+      changedModules.add(owner);
+      if (MavenProjectConverter.MAVEN_PACKAGING_POM.equals(owner.getPackaging()) && owner.getFile() != null
+        && isSameFile(owner.getFile().toPath(), file)) {
+        changedAggregators.add(owner);
+      }
+    }
+    Set<MavenProject> selected = new HashSet<>(changedModules);
+    for (MavenProject module : changedAggregators) {
+      Path baseDir = module.getBasedir().toPath().toAbsolutePath().normalize();
+      for (MavenProject other : modules) {
+        if (other.getBasedir().toPath().toAbsolutePath().normalize().startsWith(baseDir)) {
+          selected.add(other);
+        }
+      }
+    }
+    int owning = selected.size();
+    addDependents(selected, modules);
+    logger.info("Change set : " + files.size() + " files, " + changedModules.size() + " modules changed, "
+      + (owning - changedModules.size()) + " modules under changed aggregators, "
+      + (selected.size() - owning) + " dependent modules, scanning " + selected.size() + " of " + modules.size());
+    List<MavenProject> scanned = new ArrayList<>();
+    for (MavenProject module : modules) {
+      if (selected.contains(module)) {
+        scanned.add(module);
+      }
+    }
+    return scanned;
+  }
+
+  private static boolean isSameFile(Path pom, Path file) {
+    Path absolute = pom.toAbsolutePath().normalize();
+    if (absolute.equals(file)) {
+      return true;
+    }
+    try {
+      return absolute.toRealPath().equals(file);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /*** The absolute and real forms of the root, git reports real paths ***/
+  private static void own(PathTrie<MavenProject> owners, Path root, MavenProject module) {
+    Path absolute = root.toAbsolutePath().normalize();
+    owners.put(absolute, module);
+    try {
+      Path real = absolute.toRealPath();
+      if (!real.equals(absolute)) {
+        owners.put(real, module);
+      }
+    } catch (IOException e) {
+      // Not existing, only the absolute form is known
+    }
+  }
+
+  /*** Add the modules depending on the selected ones, directly or not ***/
+  private static void addDependents(Set<MavenProject> selected, List<MavenProject> modules) {
+    Map<MavenProject, List<MavenProject>> dependents = new HashMap<>();
+    for (Map.Entry<MavenProject, List<MavenProject>> module : ModuleScheduler.buildDependencyGraph(modules).entrySet()) {
+      for (MavenProject dependency : module.getValue()) {
+        dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(module.getKey());
+      }
+    }
+    Deque<MavenProject> pending = new ArrayDeque<>(selected);
+    while (!pending.isEmpty()) {
+      for (MavenProject dependent : dependents.getOrDefault(pending.poll(), Collections.emptyList())) {
+        if (selected.add(dependent)) {
+          pending.add(dependent);
+        }
+      }
+    }
+  }
+}
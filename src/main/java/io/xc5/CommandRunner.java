@@ -0,0 +1,176 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/***
+ * Runs the xvsa tools as sub processes. The output of each invocation goes
+ * straight to its own log file, only the last lines are read back into
+ * memory, and only when the invocation failed.
+ */
+public class CommandRunner {
+
+  private static final int TAIL_BLOCK_SIZE = 8192;
+
+  private static final int TAIL_MAX_LINE_BYTES = 4096;
+
+  private final Log logger;
+  private final int tailLines;
+
+  /***
+   * @param logger logger
+   * @param tailLines number of output lines reported on failure
+   */
+  public CommandRunner(Log logger, int tailLines) {
+    this.logger = logger;
+    this.tailLines = Math.max(0, tailLines);
+  }
+
+  /***
+   * Run the command and wait for it.
+   * @param execFilePath executable
+   * @param cmdList arguments
+   * @param workingDirectory working directory of the process
+   * @param logFile receives stdout and stderr of the process
+   * @param timeoutSeconds how long to wait for the process, 0 or less to wait forever
+   * @return the exit code
+   * @throws IOException if the process cannot be started
+   * @throws InterruptedException if interrupted while waiting, the process tree is killed
+   * @throws TimeoutException if the process did not finish in time, the process tree is killed
+   */
+  public int run(String execFilePath, List<String> cmdList, String workingDirectory, File logFile, long timeoutSeconds)
+    throws IOException, InterruptedException, TimeoutException {
+    List<String> command = new ArrayList<>(cmdList.size() + 1);
+    command.add(execFilePath);
+    command.addAll(cmdList);
+    File parent = logFile.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Cannot create log directory : " + parent.getPath());
+    }
+    ProcessBuilder builder = new ProcessBuilder(command)
+      .directory(new File(workingDirectory))
+      .redirectErrorStream(true)
+      .redirectOutput(ProcessBuilder.Redirect.to(logFile));
+    logger.debug("Working directory : " + workingDirectory);
+    if (logger.isDebugEnabled()) {
+      logger.debug("Invoke cmd : " + String.join(" ", command));
+    }
+    logger.debug("Output log : " + logFile.getPath());
+    Process process = builder.start();
+    try {
+      if (timeoutSeconds <= 0) {
+        return process.waitFor();
+      }
+      if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+        logger.warn("Invocation did not finish within " + timeoutSeconds + "s, killing it, see " + logFile.getPath());
+        destroyTree(process);
+        throw new TimeoutException("Timed out after " + timeoutSeconds + "s : " + execFilePath);
+      }
+      return process.exitValue();
+    } catch (InterruptedException e) {
+      destroyTree(process);
+      throw e;
+    }
+  }
+
+  /***
+   * Kill the process and everything it started, the tools are wrapper scripts
+   * launching the actual front end or analyzer as child processes.
+   * Descendants are only reachable through ProcessHandle, which needs Java 9,
+   * on Java 8 only the process itself is killed.
+   */
+  static void destroyTree(Process process) {
+    try {
+      Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+      Method destroyForcibly = handleClass.getMethod("destroyForcibly");
+      Object handle = Process.class.getMethod("toHandle").invoke(process);
+      // Collect the descendants first, they get re-parented once the root is gone
+      List<?> descendants = ((Stream<?>) handleClass.getMethod("descendants").invoke(handle))
+        .collect(Collectors.toList());
+      process.destroyForcibly();
+      for (Object descendant : descendants) {
+        destroyForcibly.invoke(descendant);
+      }
+    } catch (ReflectiveOperationException e) {
+      process.destroyForcibly();
+    }
+  }
+
+  /***
+   * Report the end of the output of a failed invocation.
+   * @param logFile the log file of the invocation
+   */
+  public void reportFailure(File logFile) {
+    if (tailLines == 0) {
+      return;
+    }
+    Deque<String> lines = tail(logFile, tailLines);
+    StringBuilder message = new StringBuilder("Last ").append(lines.size())
+      .append(" lines of ").append(logFile.getPath()).append(" :");
+    for (String line : lines) {
+      message.append(System.lineSeparator()).append(line);
+    }
+    logger.error(message.toString());
+  }
+
+  /***
+   * Read the last lines of a file, scanning backwards from its end
+   * so the memory used only depends on the number of lines.
+   */
+  static Deque<String> tail(File file, int count) {
+    Deque<String> lines = new ArrayDeque<>(count);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      long position = raf.length();
+      byte[] block = new byte[TAIL_BLOCK_SIZE];
+      ByteArrayOutputStream current = new ByteArrayOutputStream();
+      boolean trailing = true;
+      while (position > 0 && lines.size() < count) {
+        int size = (int) Math.min(block.length, position);
+        position -= size;
+        raf.seek(position);
+        raf.readFully(block, 0, size);
+        for (int i = size - 1; i >= 0 && lines.size() < count; i--) {
+          if (block[i] == '\n') {
+            if (!trailing || current.size() > 0) {
+              lines.addFirst(reversed(current));
+            }
+            trailing = false;
+            current.reset();
+          } else if (block[i] != '\r' && current.size() < TAIL_MAX_LINE_BYTES) {
+            current.write(block[i]);
+          }
+        }
+      }
+      if (position == 0 && current.size() > 0 && lines.size() < count) {
+        lines.addFirst(reversed(current));
+      }
+    } catch (IOException e) {
+      lines.add("<cannot read " + file.getPath() + " : " + e.getLocalizedMessage() + ">");
+    }
+    return lines;
+  }
+
+  private static String reversed(ByteArrayOutputStream bytes) {
+    byte[] data = bytes.toByteArray();
+    for (int i = 0, j = data.length - 1; i < j; i++, j--) {
+      byte tmp = data[i];
+      data[i] = data[j];
+      data[j] = tmp;
+    }
+    return new String(data, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,238 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * What each source directory held the last time it was listed, kept beside the srclist.
+ * A directory whose modification time and number of entries did not change since is
+ * not listed again, its source files and subdirectories come from its stamp, so an
+ * unchanged tree costs one stat and one name listing per directory instead of one
+ * stat per file.
+ * <p>
+ * The sizes and times of the files of an unchanged directory are the recorded ones,
+ * editing a file does not touch its directory. Stamps recorded within RACY_MILLIS of
+ * the save are not trusted, the directory may have changed in the same clock tick.
+ * The file is line based, UTF-8 :
+ * <pre>
+ * #xvsa-stamps 1
+ * filter &lt;source filter globs&gt;
+ * written &lt;save time, ms&gt;
+ * D &lt;modified&gt; &lt;entries&gt; &lt;classes&gt; &lt;class bytes&gt; &lt;newest&gt; &lt;digest&gt; &lt;digest&gt; &lt;directory&gt;
+ * F &lt;size&gt; &lt;source file name&gt;
+ * d &lt;subdirectory name&gt;
+ * </pre>
+ */
+public class DirectoryStamps {
+
+  static final String SUFFIX = ".stamps";
+
+  static final String HEADER = "#xvsa-stamps 1";
+
+  static final long RACY_MILLIS = 2000;
+
+  /*** One directory, the files directly in it and its subdirectories to walk ***/
+  static class Entry {
+    final long modified;
+    final int entryCount;
+    final int classCount;
+    final long classBytes;
+    final long newestModified;
+    final long digestHigh;
+    final long digestLow;
+    final String[] sourceNames;
+    final long[] sourceSizes;
+    final String[] subdirs;
+
+    Entry(long modified, int entryCount, int classCount, long classBytes, long newestModified,
+          long digestHigh, long digestLow, String[] sourceNames, long[] sourceSizes, String[] subdirs) {
+      this.modified = modified;
+      this.entryCount = entryCount;
+      this.classCount = classCount;
+      this.classBytes = classBytes;
+      this.newestModified = newestModified;
+      this.digestHigh = digestHigh;
+      this.digestLow = digestLow;
+      this.sourceNames = sourceNames;
+      this.sourceSizes = sourceSizes;
+      this.subdirs = subdirs;
+    }
+  }
+
+  private final File file;
+  private final String filter;
+  private final long writtenAt;
+  private final Map<String, Entry> previous;
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+  private final PathTrie<Void> walkedRoots = new PathTrie<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private DirectoryStamps(File file, String filter, long writtenAt, Map<String, Entry> previous) {
+    this.file = file;
+    this.filter = filter;
+    this.writtenAt = writtenAt;
+    this.previous = previous;
+  }
+
+  /***
+   * Read the stamps of the previous run, stamps recorded with another source filter are dropped.
+   * @param file the stamp file, may not exist
+   * @param sourceFilter the filter of this run
+   * @param logger logger
+   * @return the stamps, empty if none could be read
+   */
+  public static DirectoryStamps load(File file, SourceFilter sourceFilter, Log logger) {
+    String filter = sourceFilter.toString();
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    long writtenAt = 0;
+    if (file.isFile()) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 65536)) {
+        if (!HEADER.equals(reader.readLine()) || !("filter " + SourceListWriter.escape(filter)).equals(reader.readLine())) {
+          logger.info("Directory stamps written by another version or source filter, listing all source directories");
+        } else {
+          writtenAt = Long.parseLong(field(reader.readLine(), "written "));
+          readEntries(reader, entries);
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Cannot read directory stamps, listing all source directories : " + e.getMessage());
+        entries.clear();
+        writtenAt = 0;
+      }
+    }
+    return new DirectoryStamps(file, filter, writtenAt, entries);
+  }
+
+  /***
+   * @return the stamp of the directory, null if it changed or is unknown
+   */
+  Entry lookup(String dir, long modified, int entryCount) {
+    Entry entry = previous.get(dir);
+    if (entry == null || entry.modified != modified || entry.entryCount != entryCount
+      || entry.modified >= writtenAt - RACY_MILLIS) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry;
+  }
+
+  /*** Keep the stamp of a directory walked in this run ***/
+  void record(String dir, Entry entry) {
+    current.put(dir, entry);
+  }
+
+  /*** The stamps found under the root and not walked again are dropped on save ***/
+  void rootWalked(Path root) {
+    synchronized (walkedRoots) {
+      walkedRoots.add(root);
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /***
+   * Write the stamps of the directories walked in this run, and the previous stamps
+   * of the roots not walked in this run.
+   */
+  public void save(Log logger) {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    long now = System.currentTimeMillis();
+    try {
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8), 65536)) {
+        writer.write(HEADER + "\n");
+        writer.write("filter " + SourceListWriter.escape(filter) + "\n");
+        writer.write("written " + now + "\n");
+        for (Map.Entry<String, Entry> one : current.entrySet()) {
+          write(writer, one.getKey(), one.getValue());
+        }
+        synchronized (walkedRoots) {
+          for (Map.Entry<String, Entry> one : previous.entrySet()) {
+            if (!current.containsKey(one.getKey()) && !walkedRoots.hasAncestor(Paths.get(one.getKey()), false)) {
+              write(writer, one.getKey(), one.getValue());
+            }
+          }
+        }
+      }
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.debug("Directory stamps written to " + file.getPath() + ", " + hits.get() + " directories unchanged, "
+        + misses.get() + " listed");
+    } catch (IOException e) {
+      logger.warn("Cannot write directory stamps : " + file.getPath());
+      tmpFile.delete();
+    }
+  }
+
+  private static void write(Writer writer, String dir, Entry entry) throws IOException {
+    writer.write("D " + entry.modified + " " + entry.entryCount + " " + entry.classCount + " " + entry.classBytes
+      + " " + entry.newestModified + " " + entry.digestHigh + " " + entry.digestLow + " " + SourceListWriter.escape(dir) + "\n");
+    for (int i = 0; i < entry.sourceNames.length; i++) {
+      writer.write("F " + entry.sourceSizes[i] + " " + SourceListWriter.escape(entry.sourceNames[i]) + "\n");
+    }
+    for (String subdir : entry.subdirs) {
+      writer.write("d " + SourceListWriter.escape(subdir) + "\n");
+    }
+  }
+
+  private static void readEntries(BufferedReader reader, Map<String, Entry> entries) throws IOException {
+    String[] head = null;
+    List<String> names = new ArrayList<>();
+    List<Long> sizes = new ArrayList<>();
+    List<String> subdirs = new ArrayList<>();
+    for (String line = reader.readLine(); ; line = reader.readLine()) {
+      if (line == null || line.startsWith("D ")) {
+        if (head != null) {
+          long[] sourceSizes = new long[sizes.size()];
+          for (int i = 0; i < sourceSizes.length; i++) {
+            sourceSizes[i] = sizes.get(i);
+          }
+          entries.put(SourceListReader.unescape(head[8]), new Entry(Long.parseLong(head[1]), Integer.parseInt(head[2]),
+            Integer.parseInt(head[3]), Long.parseLong(head[4]), Long.parseLong(head[5]), Long.parseLong(head[6]),
+            Long.parseLong(head[7]), names.toArray(new String[0]), sourceSizes, subdirs.toArray(new String[0])));
+          names.clear();
+          sizes.clear();
+          subdirs.clear();
+        }
+        if (line == null) {
+          return;
+        }
+        head = line.split(" ", 9);
+        if (head.length != 9) {
+          throw new IOException("Malformed directory stamp : " + line);
+        }
+      } else if (line.startsWith("F ") && head != null) {
+        int space = line.indexOf(' ', 2);
+        sizes.add(Long.parseLong(line.substring(2, space)));
+        names.add(SourceListReader.unescape(line.substring(space + 1)));
+      } else if (line.startsWith("d ") && head != null) {
+        subdirs.add(SourceListReader.unescape(line.substring(2)));
+      } else if (!line.isEmpty()) {
+        throw new IOException("Malformed directory stamp : " + line);
+      }
+    }
+  }
+
+  private static String field(String line, String prefix) throws IOException {
+    if (line == null || !line.startsWith(prefix)) {
+      throw new IOException("Missing " + prefix.trim());
+    }
+    return line.substring(prefix.length());
+  }
+}
@@ -0,0 +1,247 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/***
+ * User level cache of library V-Table objects, shared between builds.
+ * Entries are keyed by the content of the jar, the JFE options used to
+ * generate the object and the xvsa installation, so an entry is only
+ * reused when generating it again would give the same result.
+ * The least recently used entries are evicted once the cache grows over its size limit.
+ */
+public class LibraryCache {
+
+  private static final String ENTRY_SUFFIX = ".o";
+
+  private static final Map<String, String> JAR_HASHES = new ConcurrentHashMap<>();
+
+  private final File cacheDir;
+  private final long maxSize;
+  private final String toolStamp;
+  private final Log logger;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /* Size of the cache entries, listed on the first store and updated by each store, -1 until then */
+  private long size = -1;
+
+  /***
+   * @param cacheDir root directory of the cache
+   * @param maxSizeMb size limit of the cache in mega bytes
+   * @param xvsaInstallDir xvsa installation, part of the cache key
+   * @param logger logger
+   */
+  public LibraryCache(File cacheDir, long maxSizeMb, String xvsaInstallDir, Log logger) {
+    this.cacheDir = cacheDir.getAbsoluteFile();
+    this.maxSize = maxSizeMb * 1024 * 1024;
+    this.logger = logger;
+    this.toolStamp = computeToolStamp(xvsaInstallDir);
+  }
+
+  public static File defaultCacheDir() {
+    return Paths.get(System.getProperty("user.home"), ".xvsa", "cache").toFile();
+  }
+
+  /***
+   * Compute the cache key of a library object.
+   * @param jar the library jar
+   * @param options the JFE options used to generate the object
+   * @return the key, or null if the jar cannot be read
+   */
+  public String key(File jar, List<String> options) {
+    try {
+      MessageDigest digest = sha256();
+      digest.update(hashJar(jar).getBytes("UTF-8"));
+      for (String option : options) {
+        digest.update((option + "\n").getBytes("UTF-8"));
+      }
+      digest.update(toolStamp.getBytes("UTF-8"));
+      return toHex(digest.digest());
+    } catch (IOException e) {
+      logger.warn("Cannot compute cache key for library : " + jar.getPath() + ", due to " + e.getLocalizedMessage());
+      return null;
+    }
+  }
+
+  /***
+   * Put the cached object for the key to the output file, as a hard link if possible.
+   * @param key cache key
+   * @param output where the object is expected
+   * @return true on a cache hit
+   */
+  public boolean restore(String key, File output) {
+    Path entry = entryPath(key);
+    if (key == null || !Files.isRegularFile(entry)) {
+      misses.incrementAndGet();
+      return false;
+    }
+    try {
+      Files.deleteIfExists(output.toPath());
+      try {
+        Files.createLink(output.toPath(), entry);
+      } catch (IOException | UnsupportedOperationException e) {
+        Files.copy(entry, output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      // Keep track of the usage for the LRU eviction
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      hits.incrementAndGet();
+      return true;
+    } catch (IOException e) {
+      logger.warn("Cannot restore cached library " + entry + ", due to " + e.getLocalizedMessage());
+      misses.incrementAndGet();
+      return false;
+    }
+  }
+
+  /***
+   * Save a freshly generated object into the cache and evict old entries if needed.
+   * @param key cache key
+   * @param generated the generated object
+   */
+  public void store(String key, File generated) {
+    if (key == null || !generated.isFile()) {
+      return;
+    }
+    Path entry = entryPath(key);
+    long added;
+    try {
+      Files.createDirectories(entry.getParent());
+      Path tmp = Files.createTempFile(entry.getParent(), key, ".tmp");
+      Files.copy(generated.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+      added = Files.size(tmp) - (Files.isRegularFile(entry) ? Files.size(entry) : 0);
+      Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Cannot store library " + generated.getPath() + " in cache, due to " + e.getLocalizedMessage());
+      return;
+    }
+    added(added);
+  }
+
+  /***
+   * Account for a stored entry, the cache is only listed again when it grows over its size limit.
+   * Entries stored by concurrent builds are only seen then.
+   */
+  private synchronized void added(long bytes) {
+    if (size >= 0) {
+      size += bytes;
+      if (size <= maxSize) {
+        return;
+      }
+    }
+    evict();
+  }
+
+  public int getHits() {
+    return hits.get();
+  }
+
+  public int getMisses() {
+    return misses.get();
+  }
+
+  /***
+   * List the cache, and remove the least recently used entries until it fits its size limit.
+   */
+  synchronized void evict() {
+    List<File> entries;
+    try (Stream<Path> paths = Files.walk(cacheDir.toPath(), 2)) {
+      entries = paths.filter(p -> p.getFileName().toString().endsWith(ENTRY_SUFFIX))
+        .map(Path::toFile)
+        .collect(Collectors.toList());
+    } catch (IOException | UncheckedIOException e) {
+      logger.warn("Cannot list library cache " + cacheDir + ", due to " + e.getLocalizedMessage());
+      return;
+    }
+    long total = 0;
+    for (File one : entries) {
+      total += one.length();
+    }
+    if (total <= maxSize) {
+      size = total;
+      return;
+    }
+    entries.sort(Comparator.comparingLong(File::lastModified));
+    for (File one : entries) {
+      if (total <= maxSize) {
+        break;
+      }
+      long length = one.length();
+      if (one.delete()) {
+        total -= length;
+        logger.debug("Evicted cached library " + one.getPath());
+      }
+    }
+    size = total;
+  }
+
+  private Path entryPath(String key) {
+    String name = key == null ? "" : key;
+    return Paths.get(cacheDir.getPath(), name.length() > 2 ? name.substring(0, 2) : name, name + ENTRY_SUFFIX);
+  }
+
+  private static String hashJar(File jar) throws IOException {
+    // Jars are shared by many modules, hash each version of a jar once per build
+    String stamp = jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified();
+    String hash = JAR_HASHES.get(stamp);
+    if (hash == null) {
+      MessageDigest digest = sha256();
+      byte[] buffer = new byte[64 * 1024];
+      try (InputStream in = Files.newInputStream(jar.toPath())) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      hash = toHex(digest.digest());
+      JAR_HASHES.put(stamp, hash);
+    }
+    return hash;
+  }
+
+  /***
+   * Identify the xvsa installation by the files of its front end,
+   * an upgraded installation gets a new set of cache entries.
+   */
+  static String computeToolStamp(String xvsaInstallDir) {
+    StringBuilder stamp = new StringBuilder(String.valueOf(xvsaInstallDir));
+    File[] files = xvsaInstallDir == null ? null : Paths.get(xvsaInstallDir, "lib", "1.0").toFile().listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (File one : files) {
+        stamp.append('|').append(one.getName()).append(':').append(one.length()).append(':').append(one.lastModified());
+      }
+    }
+    return stamp.toString();
+  }
+
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,281 @@
+package io.xc5;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/***
+ * The class path entries of all modules of a reactor, built once per build.
+ * Each distinct entry is canonicalized, stat-ed and matched against the library
+ * filters a single time, modules only keep the ids of their entries. The V-Table
+ * of a library is generated by the first module claiming it, the other modules
+ * depending on it reuse that output.
+ */
+public class LibraryRegistry {
+
+  /*** One class path entry of the reactor ***/
+  public static class Library {
+    private final int id;
+    private final File file;
+    private final String coordinates;
+    private final boolean exists;
+    private final boolean directory;
+    private final long length;
+    private final long lastModified;
+    private final boolean selected;
+
+    /* V-Table output, set by the first module claiming the library */
+    private File output;
+    private String owner;
+    private final CompletableFuture<Boolean> generated = new CompletableFuture<>();
+
+    Library(int id, File file, String coordinates, BasicFileAttributes attributes, boolean selected) {
+      this.id = id;
+      this.file = file;
+      this.coordinates = coordinates;
+      this.exists = attributes != null;
+      this.directory = attributes != null && attributes.isDirectory();
+      this.length = attributes == null ? 0 : attributes.size();
+      this.lastModified = attributes == null ? 0 : attributes.lastModifiedTime().toMillis();
+      this.selected = selected;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    /*** Canonical path of the jar or directory ***/
+    public File getFile() {
+      return file;
+    }
+
+    /*** groupId:artifactId:version of the dependency, null if no artifact resolves to the file ***/
+    public String getCoordinates() {
+      return coordinates;
+    }
+
+    public boolean exists() {
+      return exists;
+    }
+
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    /*** True if the library passes the xvsa.lib.jar.filter filters ***/
+    public boolean isSelected() {
+      return selected;
+    }
+
+    /*** True for an existing jar whose V-Table is to be generated ***/
+    public boolean isGenerated() {
+      return exists && !directory && selected;
+    }
+
+    /***
+     * Claim the generation of the V-Table of this library.
+     * @param candidate output the module would generate
+     * @param moduleKey the claiming module
+     * @return true if the module owns the generation, and must call generated once done
+     */
+    synchronized boolean claim(File candidate, String moduleKey) {
+      if (output != null) {
+        return false;
+      }
+      output = candidate;
+      owner = moduleKey;
+      return true;
+    }
+
+    synchronized File getOutput() {
+      return output;
+    }
+
+    synchronized String getOwner() {
+      return owner;
+    }
+
+    /***
+     * Called by the owner once the generation finished.
+     * @param failure null if the V-Table was generated or found
+     */
+    void generated(Throwable failure) {
+      if (failure == null) {
+        generated.complete(Boolean.TRUE);
+      } else {
+        generated.completeExceptionally(failure);
+      }
+    }
+
+    /***
+     * Wait for the owner of the library to generate its V-Table.
+     * @throws MojoExecutionException if the owner failed to generate it
+     */
+    void awaitGenerated() throws MojoExecutionException {
+      try {
+        generated.get();
+      } catch (ExecutionException e) {
+        throw new MojoExecutionException("Generating library failed : " + file.getName() + ", in module " + getOwner(),
+          e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while waiting for library : " + file.getName());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return coordinates != null ? file.getName() + " (" + coordinates + ")" : file.getName();
+    }
+  }
+
+  private final String[] libJarFilter;
+  private final boolean excludeAllLibrariesByDefault;
+  private final Log logger;
+  private final List<Library> libraries = new ArrayList<>();
+  /* Class path entries as written in the module properties, to skip canonicalizing them again */
+  private final Map<String, Library> byPath = new HashMap<>();
+  private final Map<File, Library> byFile = new HashMap<>();
+  private final Map<String, int[]> moduleLibraries = new HashMap<>();
+  private long references = 0;
+
+  /***
+   * @param libJarFilter jar name prefixes of xvsa.lib.jar.filter
+   * @param excludeAllLibrariesByDefault true if the filter is a black list
+   * @param logger logger
+   */
+  public LibraryRegistry(String[] libJarFilter, boolean excludeAllLibrariesByDefault, Log logger) {
+    this.libJarFilter = libJarFilter;
+    this.excludeAllLibrariesByDefault = excludeAllLibrariesByDefault;
+    this.logger = logger;
+  }
+
+  /***
+   * Register the class path of a module.
+   * @param moduleKey module key
+   * @param pom the module, its resolved artifacts give the coordinates of the entries
+   * @param classPath class path entries, may be null
+   */
+  public synchronized void register(String moduleKey, MavenProject pom, List<String> classPath) {
+    Map<String, String> coordinates = null;
+    List<Integer> ids = new ArrayList<>();
+    if (classPath != null) {
+      for (String entry : classPath) {
+        if (entry.isEmpty()) {
+          continue;
+        }
+        Library library = byPath.get(entry);
+        if (library == null) {
+          File file = canonical(new File(entry));
+          library = byFile.get(file);
+          if (library == null) {
+            if (coordinates == null) {
+              coordinates = artifactCoordinates(pom);
+            }
+            library = add(file, coordinates.get(new File(entry).getAbsolutePath()));
+          }
+          byPath.put(entry, library);
+        }
+        ids.add(library.getId());
+      }
+    }
+    int[] moduleIds = new int[ids.size()];
+    for (int i = 0; i < moduleIds.length; i++) {
+      moduleIds[i] = ids.get(i);
+    }
+    moduleLibraries.put(moduleKey, moduleIds);
+    references += moduleIds.length;
+  }
+
+  /***
+   * @return the class path entries of the module, in class path order
+   */
+  public synchronized List<Library> getLibraries(String moduleKey) {
+    int[] ids = moduleLibraries.get(moduleKey);
+    if (ids == null) {
+      return Collections.emptyList();
+    }
+    List<Library> moduleLibs = new ArrayList<>(ids.length);
+    for (int id : ids) {
+      moduleLibs.add(libraries.get(id));
+    }
+    return moduleLibs;
+  }
+
+  public synchronized Library get(int id) {
+    return libraries.get(id);
+  }
+
+  /*** Number of distinct class path entries of the reactor ***/
+  public synchronized int size() {
+    return libraries.size();
+  }
+
+  /*** Number of class path entries summed over all modules ***/
+  public synchronized long getReferenceCount() {
+    return references;
+  }
+
+  private Library add(File file, String coordinates) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      attributes = null;
+    } catch (IOException e) {
+      logger.debug("Cannot read attributes of class path entry : " + file.getPath());
+      attributes = null;
+    }
+    Library library = new Library(libraries.size(), file, coordinates, attributes,
+      XvsaPluginMojo.isLibrarySelected(file, libJarFilter, excludeAllLibrariesByDefault));
+    if (!library.exists() || library.isDirectory()) {
+      logger.debug("Library jar not exists or points to dir, path : " + file.getPath());
+    }
+    libraries.add(library);
+    byFile.put(file, library);
+    return library;
+  }
+
+  /***
+   * @return coordinates of the resolved artifacts of the module, by absolute path of their file
+   */
+  private static Map<String, String> artifactCoordinates(MavenProject pom) {
+    Map<String, String> coordinates = new HashMap<>();
+    if (pom == null || pom.getArtifacts() == null) {
+      return coordinates;
+    }
+    for (Artifact artifact : pom.getArtifacts()) {
+      if (artifact.getFile() != null) {
+        coordinates.put(artifact.getFile().getAbsolutePath(),
+          artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion());
+      }
+    }
+    return coordinates;
+  }
+
+  private static File canonical(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+}
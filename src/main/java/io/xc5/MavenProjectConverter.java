@@ -107,7 +107,7 @@ public class MavenProjectConverter {
    * Optional comma-separated list of paths to libraries. Example :
    * <code>path/to/library/*.jar,path/to/specific/library/myLibrary.jar,parent/*.jar</code>
    */
-  private static final String PROJECT_LIBRARIES = "xvsa.libraries";
+  static final String PROJECT_LIBRARIES = "xvsa.libraries";
 
 
   /**
@@ -162,18 +162,34 @@ public class MavenProjectConverter {
    */
   public static final String LIBRARIES = "xvsa.java.libraries";
 
-  private Properties userProperties;
+  private Properties userProperties = new Properties();
   @Nullable
   private String specifiedProjectKey;
 
   private final Properties envProperties;
 
+  private final ReactorFileIndex fileIndex;
+
+  private ReactorIndex reactorIndex;
+
+  /* Shares the equal paths, path lists and POM properties of the modules */
+  private ModuleDescriptor.Interner interner;
+
+  /* Environment and user properties, one copy for all modules */
+  private Map<String, String> envLayer = Collections.emptyMap();
+  private Map<String, String> userLayer = Collections.emptyMap();
+
   MavenProjectConverter(Log log, Properties envProperties, MavenSession session) throws MojoExecutionException {
+    this(log, envProperties, session, new ReactorFileIndex());
+  }
+
+  MavenProjectConverter(Log log, Properties envProperties, MavenSession session, ReactorFileIndex fileIndex) throws MojoExecutionException {
     this.log = log;
     this.envProperties = envProperties;
+    this.fileIndex = fileIndex;
   }
 
-  protected Map<MavenProject, Map<String, String>> configure(MavenSession session) throws MojoExecutionException {
+  protected Map<MavenProject, ModuleDescriptor> configure(MavenSession session) throws MojoExecutionException {
     List<MavenProject> projects = session.getProjects();
     MavenProject root = null;
     for (MavenProject project : projects) {
@@ -185,29 +201,37 @@ public class MavenProjectConverter {
       throw new IllegalStateException("Maven session does not declare a top level project");
     this.userProperties = session.getUserProperties();
     this.specifiedProjectKey = specifiedProjectKey(userProperties, root);
-    Map<MavenProject, Map<String, String>> propsByModule = new LinkedHashMap<>();
+    Map<MavenProject, ModuleDescriptor> propsByModule = new LinkedHashMap<>();
+    this.reactorIndex = new ReactorIndex(projects);
+    this.interner = new ModuleDescriptor.Interner();
+    this.envLayer = interner.layer(envProperties);
+    this.userLayer = interner.layer(userProperties);
 
     configureModules(projects, propsByModule);
-    Map<String, String> props = new HashMap<>();
-    props.put(PROJECT_KEY, getArtifactKey(root));
-    props.put(MODULE_KEY, getArtifactKey(root));
+    // The interned values live on in the descriptors only
+    this.interner = null;
     return propsByModule;
   }
 
+  /***
+   * @return the module index of the reactor, built by configure
+   */
+  ReactorIndex getReactorIndex() {
+    return reactorIndex;
+  }
+
   static Path findCommonParentDir(Path dir1, Path dir2) {
-    if (dir1.startsWith(dir2)) return dir2;
-    if (dir2.startsWith(dir1)) return dir1;
-    Path candidate = dir1.getParent();
-    while (candidate != null) {
-      if (dir2.startsWith(candidate)) {
-        return candidate;
-      }
-      candidate = candidate.getParent();
+    PathTrie<Void> trie = new PathTrie<>();
+    trie.add(dir1);
+    trie.add(dir2);
+    Path common = trie.commonAncestor();
+    if (common != null) {
+      return common;
     }
     throw new IllegalStateException("Unable to find a common parent between two modules baseDir: '" + dir1 + "' and '" + dir2 + "'");
   }
 
-  private void configureModules(List<MavenProject> mavenProjects, Map<MavenProject, Map<String, String>> propsByModule)
+  private void configureModules(List<MavenProject> mavenProjects, Map<MavenProject, ModuleDescriptor> propsByModule)
     throws MojoExecutionException {
     for (MavenProject pom : mavenProjects) {
       boolean skipped = "true".equals(pom.getModel().getProperties().getProperty("xvsa.skip"));
@@ -219,7 +243,7 @@ public class MavenProjectConverter {
     }
   }
 
-  private Map<String, String> computeXvsaRelatedProperties(MavenProject pom) throws MojoExecutionException {
+  private ModuleDescriptor computeXvsaRelatedProperties(MavenProject pom) throws MojoExecutionException {
     Map<String, String> props = new HashMap<>();
     defineModuleKey(pom, props, specifiedProjectKey);
     props.put(PROJECT_VERSION, pom.getVersion());
@@ -228,8 +252,7 @@ public class MavenProjectConverter {
     if (description != null) {
       props.put(PROJECT_DESCRIPTION, description);
     }
-    synchronizeFileSystemAndOtherProps(pom, props);
-    return props;
+    return synchronizeFileSystemAndOtherProps(pom, props);
   }
 
   @CheckForNull
@@ -260,7 +283,7 @@ public class MavenProjectConverter {
     return pom.getGroupId() + ":" + pom.getArtifactId();
   }
 
-  private void synchronizeFileSystemAndOtherProps(MavenProject pom, Map<String, String> props)
+  private ModuleDescriptor synchronizeFileSystemAndOtherProps(MavenProject pom, Map<String, String> props)
     throws MojoExecutionException {
     props.put(PROJECT_BASEDIR, pom.getBasedir().getAbsolutePath());
     File buildDir = getBuildDir(pom);
@@ -270,34 +293,40 @@ public class MavenProjectConverter {
     }
     populateBinaries(pom, props);
 
-    populateLibraries(pom, props, false);
-    populateLibraries(pom, props, true);
+    List<String> libraries = populateLibraries(pom, false);
+    // Test scope is only resolved if read, the front end needs main classes and libraries only
+    ModuleDescriptor.Lazy<List<String>> testLibraries = new ModuleDescriptor.Lazy<>(() -> {
+      List<String> paths = populateLibraries(pom, true);
+      return paths.isEmpty() ? null : Collections.unmodifiableList(paths);
+    });
+    ModuleDescriptor.Lazy<List<String>> testDirs = new ModuleDescriptor.Lazy<>(() -> {
+      List<File> dirs = testSources(pom);
+      return dirs.isEmpty() ? null : Collections.unmodifiableList(Arrays.asList(toPaths(dirs)));
+    });
+
+    // The packaging is computed, yet overrides the POM properties as it always did
+    props.put(PROJECT_PACKING_TYPE, pom.getModel().getPackaging());
 
     // IMPORTANT NOTE : reference on properties from POM model must not be saved,
     // instead they should be copied explicitly - see XXXXX-2896
-    for (String k : pom.getModel().getProperties().stringPropertyNames()) {
-      props.put(k, pom.getModel().getProperties().getProperty(k));
+    Map<String, String> pomLayer = interner.layer(pom.getModel().getProperties());
+    if (props.get(PROJECT_PACKING_TYPE) != null && pomLayer.containsKey(PROJECT_PACKING_TYPE)) {
+      Map<String, String> packaged = new HashMap<>(pomLayer);
+      packaged.remove(PROJECT_PACKING_TYPE);
+      pomLayer = interner.layer(packaged);
     }
 
-    props.put(PROJECT_PACKING_TYPE, pom.getModel().getPackaging());
-
-    MavenUtils.putAll(envProperties, props);
-
-    // Add user properties (ie command line arguments -Dxvsa.xxx=yyyy) in last position to
-    // override all other
-    MavenUtils.putAll(userProperties, props);
-
-    List<File> mainDirs = mainSources(pom);
-    props.put(PROJECT_SOURCE_DIRS, StringUtils.join(toPaths(mainDirs), SEPARATOR));
-    List<File> testDirs = testSources(pom);
-    if (!testDirs.isEmpty()) {
-      props.put(PROJECT_TEST_DIRS, StringUtils.join(toPaths(testDirs), SEPARATOR));
-    } else {
-      props.remove(PROJECT_TEST_DIRS);
-    }
+    // Environment, then user properties (ie command line arguments -Dxvsa.xxx=yyyy)
+    // override all other, as layers shared by all modules
+    List<String> mainDirs = interner.list(Arrays.asList(toPaths(mainSources(pom))));
+    return new ModuleDescriptor(props, pomLayer, envLayer, userLayer, interner.list(libraries), testLibraries,
+      mainDirs, testDirs);
   }
 
-  private static void populateLibraries(MavenProject pom, Map<String, String> props, boolean test) throws MojoExecutionException {
+  /***
+   * @return the existing class path entries of the module, without its own output
+   */
+  List<String> populateLibraries(MavenProject pom, boolean test) throws MojoExecutionException {
     List<String> classpathElements;
     try {
       classpathElements = test ? pom.getTestClasspathElements() : pom.getCompileClasspathElements();
@@ -314,27 +343,16 @@ public class MavenProjectConverter {
         .map(cp -> Optional.ofNullable(resolvePath(cp, basedir)))
         .filter(Optional::isPresent)
         .map(Optional::get)
-        .filter(File::exists)
+        .filter(fileIndex::exists)
         .forEach(libraries::add);
     }
-    if (!libraries.isEmpty()) {
-      String librariesValue = StringUtils.join(toPaths(libraries), SEPARATOR);
-      if (test) {
-        props.put(JAVA_PROJECT_TEST_LIBRARIES, librariesValue);
-      } else {
-        // Populate both deprecated and new property for backward compatibility
-        props.put(PROJECT_LIBRARIES, librariesValue);
-        props.put(JAVA_PROJECT_MAIN_LIBRARIES, librariesValue);
-      }
-    } else {
-      props.put(PROJECT_LIBRARIES, "");
-      props.put(JAVA_PROJECT_MAIN_LIBRARIES, "");
-    }
+    // Read through both the deprecated and the new property for backward compatibility
+    return Arrays.asList(toPaths(libraries));
   }
 
-  private static void populateBinaries(MavenProject pom, Map<String, String> props) {
+  private void populateBinaries(MavenProject pom, Map<String, String> props) {
     File mainBinaryDir = resolvePath(pom.getBuild().getOutputDirectory(), pom.getBasedir());
-    if (mainBinaryDir != null && mainBinaryDir.exists()) {
+    if (mainBinaryDir != null && fileIndex.exists(mainBinaryDir)) {
       String binPath = mainBinaryDir.getAbsolutePath();
       // Populate both deprecated and new property for backward compatibility
       props.put(PROJECT_BINARY_DIRS, binPath);
@@ -342,7 +360,7 @@ public class MavenProjectConverter {
       props.put(GROOVY_PROJECT_MAIN_BINARY_DIRS, binPath);
     }
     File testBinaryDir = resolvePath(pom.getBuild().getTestOutputDirectory(), pom.getBasedir());
-    if (testBinaryDir != null && testBinaryDir.exists()) {
+    if (testBinaryDir != null && fileIndex.exists(testBinaryDir)) {
       String binPath = testBinaryDir.getAbsolutePath();
       props.put(JAVA_PROJECT_TEST_BINARY_DIRS, binPath);
     }
@@ -379,15 +397,9 @@ public class MavenProjectConverter {
   }
 
   private static void removeTarget(MavenProject pom, Collection<String> relativeOrAbsolutePaths) {
-    final Path baseDir = pom.getBasedir().toPath().toAbsolutePath().normalize();
-    final Path target = Paths.get(pom.getBuild().getDirectory()).toAbsolutePath().normalize();
-    final Path targetRelativePath = baseDir.relativize(target);
-
-    relativeOrAbsolutePaths.removeIf(pathStr -> {
-      Path path = Paths.get(pathStr).toAbsolutePath().normalize();
-      Path relativePath = baseDir.relativize(path);
-      return relativePath.startsWith(targetRelativePath);
-    });
+    final PathTrie<Void> target = new PathTrie<>();
+    target.add(Paths.get(pom.getBuild().getDirectory()));
+    relativeOrAbsolutePaths.removeIf(pathStr -> target.hasAncestor(Paths.get(pathStr), false));
   }
 
   private List<File> mainSources(MavenProject pom) throws MojoExecutionException {
@@ -415,10 +427,11 @@ public class MavenProjectConverter {
   }
 
   private List<File> testSources(MavenProject pom) throws MojoExecutionException {
-    return sourcePaths(pom, PROJECT_TEST_DIRS, pom.getTestCompileSourceRoots());
+    // Copied, resolved lazily it must not change the model under other readers
+    return sourcePaths(pom, PROJECT_TEST_DIRS, new ArrayList<>(pom.getTestCompileSourceRoots()));
   }
 
-  private List<File> sourcePaths(MavenProject pom, String propertyKey, Collection<String> mavenPaths) throws MojoExecutionException {
+  List<File> sourcePaths(MavenProject pom, String propertyKey, Collection<String> mavenPaths) throws MojoExecutionException {
     List<File> filesOrDirs;
     boolean userDefined = false;
     String prop = StringUtils.defaultIfEmpty(userProperties.getProperty(propertyKey), envProperties.getProperty(propertyKey));
@@ -443,10 +456,10 @@ public class MavenProjectConverter {
     }
   }
 
-  private static List<File> existingPathsOrFail(List<File> dirs, MavenProject pom, String propertyKey)
+  private List<File> existingPathsOrFail(List<File> dirs, MavenProject pom, String propertyKey)
     throws MojoExecutionException {
     for (File dir : dirs) {
-      if (!dir.exists()) {
+      if (!fileIndex.exists(dir)) {
         throw new MojoExecutionException(String.format("The directory '%s' does not exist for Maven module %s. Please check the property %s",
             dir.getAbsolutePath(), pom.getId(), propertyKey));
       }
@@ -454,26 +467,28 @@ public class MavenProjectConverter {
     return dirs;
   }
 
-  private static List<File> keepExistingPaths(List<File> files) {
-    return files.stream().filter(f -> f != null && f.exists()).collect(Collectors.toList());
+  private List<File> keepExistingPaths(List<File> files) {
+    return files.stream().filter(f -> f != null && fileIndex.exists(f)).collect(Collectors.toList());
   }
 
-  private static List<File> removeNested(List<File> originalPaths) {
+  /***
+   * Drop the paths nested in another path of the list, one trie lookup per path
+   * instead of comparing every pair.
+   */
+  static List<File> removeNested(List<File> originalPaths) {
+    PathTrie<Void> trie = new PathTrie<>();
+    for (File path : originalPaths) {
+      trie.add(path.toPath());
+    }
     List<File> result = new ArrayList<>();
     for (File maybeChild : originalPaths) {
-      boolean hasParent = false;
-      for (File possibleParent : originalPaths)
-        if (isStrictChild(maybeChild, possibleParent))
-          hasParent = true;
-      if (!hasParent) { result.add(maybeChild); }
+      if (!trie.hasAncestor(maybeChild.toPath(), true)) {
+        result.add(maybeChild);
+      }
     }
     return result;
   }
 
-  private static boolean isStrictChild(File maybeChild, File possibleParent) {
-    return !maybeChild.equals(possibleParent) && maybeChild.toPath().startsWith(possibleParent.toPath());
-  }
-
   private static String[] toPaths(Collection<File> dirs) {
     return dirs.stream().map(File::getAbsolutePath).toArray(String[]::new);
   }
@@ -0,0 +1,281 @@
+package io.xc5;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.util.*;
+
+/***
+ * Immutable properties of one module, as computed by MavenProjectConverter.
+ * <p>
+ * The properties are read through the usual keys, as a read only map, but are
+ * not copied into one map per module. They are looked up in layers, the first
+ * layer holding a key wins :
+ * <ol>
+ *   <li>the source and test directories</li>
+ *   <li>the user properties (-Dxvsa.xxx=yyy), shared by all modules</li>
+ *   <li>the environment properties, shared by all modules</li>
+ *   <li>the POM properties, modules with the same POM properties share one copy</li>
+ *   <li>the properties computed for the module, module key, binaries, libraries</li>
+ * </ol>
+ * Path lists are kept as lists of interned paths, the joined value of their key
+ * is only built when the key is read. The test class path and test directories are
+ * only resolved the first time they are read, the front end does not use them.
+ */
+public final class ModuleDescriptor extends AbstractMap<String, String> {
+
+  /***
+   * Shares the layers, lists and paths equal across the modules of a reactor.
+   * Used while configuring, from a single thread.
+   */
+  static class Interner {
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<List<String>, List<String>> lists = new HashMap<>();
+    private final Map<Map<String, String>, Map<String, String>> layers = new HashMap<>();
+
+    String string(String value) {
+      if (value == null) {
+        return null;
+      }
+      String shared = strings.putIfAbsent(value, value);
+      return shared == null ? value : shared;
+    }
+
+    /***
+     * @return an unmodifiable list of interned strings, shared with the equal lists
+     */
+    List<String> list(Collection<String> values) {
+      if (values == null) {
+        return null;
+      }
+      List<String> list = new ArrayList<>(values.size());
+      for (String value : values) {
+        list.add(string(value));
+      }
+      return lists.computeIfAbsent(list, Collections::unmodifiableList);
+    }
+
+    /***
+     * @return an unmodifiable copy of the properties, shared with the equal ones
+     */
+    Map<String, String> layer(Properties properties) {
+      Map<String, String> layer = new HashMap<>();
+      for (String name : properties.stringPropertyNames()) {
+        layer.put(string(name), string(properties.getProperty(name)));
+      }
+      return layer(layer);
+    }
+
+    Map<String, String> layer(Map<String, String> values) {
+      if (values.isEmpty()) {
+        return Collections.emptyMap();
+      }
+      return layers.computeIfAbsent(values, Collections::unmodifiableMap);
+    }
+  }
+
+  /*** Computes a value of the module, may fail as the configuration does ***/
+  interface Resolver<T> {
+    T resolve() throws MojoExecutionException;
+  }
+
+  /***
+   * A value computed on first use, then kept. A failure is kept too, and reported
+   * to every reader as an IllegalStateException.
+   */
+  static final class Lazy<T> {
+    private Resolver<T> resolver;
+    private T value;
+    private MojoExecutionException failure;
+
+    Lazy(Resolver<T> resolver) {
+      this.resolver = resolver;
+    }
+
+    static <T> Lazy<T> of(T value) {
+      Lazy<T> lazy = new Lazy<>(null);
+      lazy.value = value;
+      return lazy;
+    }
+
+    synchronized T get() {
+      if (resolver != null) {
+        try {
+          value = resolver.resolve();
+        } catch (MojoExecutionException e) {
+          failure = e;
+        }
+        // Let the resolver and what it holds go
+        resolver = null;
+      }
+      if (failure != null) {
+        throw new IllegalStateException(failure.getMessage(), failure);
+      }
+      return value;
+    }
+  }
+
+  /* Keys whose value is joined from a path list */
+  private static final Set<String> LIBRARY_KEYS = new HashSet<>(Arrays.asList(
+    MavenProjectConverter.LIBRARIES, MavenProjectConverter.PROJECT_LIBRARIES));
+
+  private final Map<String, String> computed;
+  private final Map<String, String> pomLayer;
+  private final Map<String, String> envLayer;
+  private final Map<String, String> userLayer;
+  private final List<String> libraries;
+  private final Lazy<List<String>> testLibraries;
+  private final List<String> sourceDirs;
+  private final Lazy<List<String>> testDirs;
+
+  /***
+   * @param computed properties computed for the module, copied
+   * @param pomLayer POM properties, shared
+   * @param envLayer environment properties, shared
+   * @param userLayer user properties, shared
+   * @param libraries compile class path, without the module output
+   * @param testLibraries test class path, resolving to null if empty
+   * @param sourceDirs main source directories
+   * @param testDirs test source directories, resolving to null if none
+   */
+  ModuleDescriptor(Map<String, String> computed, Map<String, String> pomLayer, Map<String, String> envLayer,
+                   Map<String, String> userLayer, List<String> libraries, Lazy<List<String>> testLibraries,
+                   List<String> sourceDirs, Lazy<List<String>> testDirs) {
+    this.computed = Collections.unmodifiableMap(new HashMap<>(computed));
+    this.pomLayer = pomLayer;
+    this.envLayer = envLayer;
+    this.userLayer = userLayer;
+    this.libraries = libraries;
+    this.testLibraries = testLibraries;
+    this.sourceDirs = sourceDirs;
+    this.testDirs = testDirs;
+  }
+
+  public String getModuleKey() {
+    return get(MavenProjectConverter.MODULE_KEY);
+  }
+
+  /*** Main source directories, absolute ***/
+  public List<String> getSourceDirs() {
+    return sourceDirs;
+  }
+
+  /***
+   * Test source directories, absolute, resolved on the first call.
+   * @return the directories, empty if none
+   * @throws IllegalStateException if the directories could not be resolved
+   */
+  public List<String> getTestDirs() {
+    List<String> dirs = testDirs.get();
+    return dirs == null ? Collections.emptyList() : dirs;
+  }
+
+  /***
+   * @return the compile class path, unless overridden by a property
+   */
+  public List<String> getLibraries() {
+    String overridden = layered(MavenProjectConverter.LIBRARIES);
+    return overridden != null ? split(overridden) : libraries;
+  }
+
+  /***
+   * Test class path, unless overridden by a property, resolved on the first call.
+   * @return the class path, empty if none
+   * @throws IllegalStateException if the class path could not be resolved
+   */
+  public List<String> getTestLibraries() {
+    String overridden = layered(MavenProjectConverter.JAVA_PROJECT_TEST_LIBRARIES);
+    if (overridden != null) {
+      return split(overridden);
+    }
+    List<String> libs = testLibraries.get();
+    return libs == null ? Collections.emptyList() : libs;
+  }
+
+  @Override
+  public String get(Object key) {
+    if (MavenProjectConverter.PROJECT_SOURCE_DIRS.equals(key)) {
+      return join(sourceDirs);
+    }
+    if (MavenProjectConverter.PROJECT_TEST_DIRS.equals(key)) {
+      List<String> dirs = testDirs.get();
+      return dirs == null ? null : join(dirs);
+    }
+    String value = layered(key);
+    if (value != null) {
+      return value;
+    }
+    if (LIBRARY_KEYS.contains(key)) {
+      return join(libraries);
+    }
+    if (MavenProjectConverter.JAVA_PROJECT_TEST_LIBRARIES.equals(key)) {
+      List<String> libs = testLibraries.get();
+      return libs == null ? null : join(libs);
+    }
+    return computed.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /***
+   * All properties, merged. Builds a new map on each call, use get for single keys.
+   * Resolves the test class path and directories, they are left out if that fails.
+   */
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    Map<String, String> merged = new TreeMap<>(computed);
+    for (String key : LIBRARY_KEYS) {
+      merged.put(key, join(libraries));
+    }
+    List<String> libs = resolvedOrNull(testLibraries);
+    if (libs != null) {
+      merged.put(MavenProjectConverter.JAVA_PROJECT_TEST_LIBRARIES, join(libs));
+    }
+    merged.putAll(pomLayer);
+    merged.putAll(envLayer);
+    merged.putAll(userLayer);
+    merged.put(MavenProjectConverter.PROJECT_SOURCE_DIRS, join(sourceDirs));
+    List<String> dirs = resolvedOrNull(testDirs);
+    if (dirs != null) {
+      merged.put(MavenProjectConverter.PROJECT_TEST_DIRS, join(dirs));
+    } else {
+      merged.remove(MavenProjectConverter.PROJECT_TEST_DIRS);
+    }
+    return Collections.unmodifiableMap(merged).entrySet();
+  }
+
+  private static List<String> resolvedOrNull(Lazy<List<String>> paths) {
+    try {
+      return paths.get();
+    } catch (IllegalStateException e) {
+      return null;
+    }
+  }
+
+  private String layered(Object key) {
+    String value = userLayer.get(key);
+    if (value == null) {
+      value = envLayer.get(key);
+    }
+    if (value == null) {
+      value = pomLayer.get(key);
+    }
+    return value;
+  }
+
+  private static String join(List<String> paths) {
+    return String.join(MavenProjectConverter.getSeperator(), paths);
+  }
+
+  private static List<String> split(String paths) {
+    List<String> list = new ArrayList<>();
+    for (String path : paths.split(MavenProjectConverter.getSeperator())) {
+      if (!path.isEmpty()) {
+        list.add(path);
+      }
+    }
+    return list;
+  }
+}
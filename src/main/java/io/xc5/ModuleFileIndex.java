@@ -0,0 +1,64 @@
+package io.xc5;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/***
+ * What the file system index knows about one module,
+ * its class directory and its source roots.
+ */
+public class ModuleFileIndex {
+
+  private final ReactorFileIndex.TreeSummary classes;
+  private final List<ReactorFileIndex.TreeSummary> sources;
+
+  ModuleFileIndex(ReactorFileIndex.TreeSummary classes, List<ReactorFileIndex.TreeSummary> sources) {
+    this.classes = classes;
+    this.sources = sources;
+  }
+
+  public int getClassCount() {
+    return classes.getClassCount();
+  }
+
+  public long getClassBytes() {
+    return classes.getClassBytes();
+  }
+
+  /*** Newest modification time in the class directory and the source roots ***/
+  public long getNewestModified() {
+    long newest = classes.getNewestModified();
+    for (ReactorFileIndex.TreeSummary one : sources) {
+      newest = Math.max(newest, one.getNewestModified());
+    }
+    return newest;
+  }
+
+  public List<String> getSourceFiles() {
+    if (sources.size() == 1) {
+      return sources.get(0).getSourceFiles();
+    }
+    List<String> files = new ArrayList<>();
+    for (ReactorFileIndex.TreeSummary one : sources) {
+      files.addAll(one.getSourceFiles());
+    }
+    return Collections.unmodifiableList(files);
+  }
+
+  public int getSourceFileCount() {
+    int count = 0;
+    for (ReactorFileIndex.TreeSummary one : sources) {
+      count += one.getSourceFiles().size();
+    }
+    return count;
+  }
+
+  public long getSourceBytes() {
+    long bytes = 0;
+    for (ReactorFileIndex.TreeSummary one : sources) {
+      bytes += one.getSourceBytes();
+    }
+    return bytes;
+  }
+}
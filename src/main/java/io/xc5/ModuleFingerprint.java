@@ -0,0 +1,102 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+
+/***
+ * Fingerprint of the inputs of the front end (and analyzer) for one module,
+ * persisted in a manifest next to the module output so that unchanged
+ * modules can be skipped by the next run.
+ */
+public class ModuleFingerprint {
+
+  static final String JFE_KEY = "jfe";
+  static final String XVSA_KEY = "xvsa";
+
+  private final File manifestFile;
+  private final Log logger;
+  private final Properties manifest = new Properties();
+
+  /***
+   * @param workingPath directory holding the module output
+   * @param moduleFileName module key usable as file name
+   * @param logger logger
+   */
+  public ModuleFingerprint(String workingPath, String moduleFileName, Log logger) {
+    this.manifestFile = new File(workingPath, moduleFileName + ".fingerprint");
+    this.logger = logger;
+    if (manifestFile.isFile()) {
+      try (Reader reader = new InputStreamReader(new FileInputStream(manifestFile), "UTF-8")) {
+        manifest.load(reader);
+      } catch (IOException e) {
+        logger.warn("Cannot read fingerprint manifest " + manifestFile.getPath() + ", ignoring it");
+        manifest.clear();
+      }
+    }
+  }
+
+  /***
+   * Compute the fingerprint of the given inputs.
+   * Files are identified by path, size and modification time, directories by the
+   * digest of their content taken from the file system index.
+   * @param index file system index
+   * @param files class directories, libraries or source roots, missing ones are ignored
+   * @param arguments command line and other options influencing the output
+   * @return hex encoded fingerprint
+   */
+  public static String compute(ReactorFileIndex index, Collection<String> files, Collection<String> arguments) {
+    MessageDigest digest = LibraryCache.sha256();
+    for (String one : files) {
+      if (one == null || one.isEmpty()) {
+        continue;
+      }
+      File file = new File(one);
+      BasicFileAttributes attrs = index.stat(file);
+      String stamp;
+      if (attrs == null) {
+        stamp = "-";
+      } else if (attrs.isDirectory()) {
+        stamp = index.tree(one).getDigest();
+      } else {
+        stamp = attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+      }
+      digest.update(("F" + one + "=" + stamp + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    for (String one : arguments) {
+      digest.update(("A" + one + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    return LibraryCache.toHex(digest.digest());
+  }
+
+  /***
+   * @param key the stage, JFE_KEY or XVSA_KEY
+   * @param fingerprint freshly computed fingerprint
+   * @return true if the stage ran with the same inputs last time
+   */
+  public synchronized boolean matches(String key, String fingerprint) {
+    return fingerprint.equals(manifest.getProperty(key));
+  }
+
+  /***
+   * Record the fingerprint of a stage that completed successfully, or forget it with null.
+   */
+  public synchronized void record(String key, String fingerprint) {
+    if (fingerprint == null) {
+      if (manifest.remove(key) == null) {
+        return;
+      }
+    } else {
+      manifest.setProperty(key, fingerprint);
+    }
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8")) {
+      manifest.store(writer, "xvsa module fingerprint");
+    } catch (IOException e) {
+      logger.warn("Cannot write fingerprint manifest " + manifestFile.getPath() + ", due to " + e.getLocalizedMessage());
+    }
+  }
+}
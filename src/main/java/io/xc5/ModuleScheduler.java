@@ -0,0 +1,310 @@
+package io.xc5;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/***
+ * Runs the per-module work of the gather goal on bounded worker pools.
+ * A module is only started after all reactor modules it depends on have
+ * finished, independent modules run concurrently.
+ * The work is split in two stages with their own workers, the front end
+ * stage hands finished modules over to the analyzer stage, so the front end
+ * of one module overlaps with the analysis of another.
+ */
+public class ModuleScheduler {
+
+  /*** Work to be done for one module, returns true to hand the module over to the next stage ***/
+  public interface ModuleTask {
+    boolean run(MavenProject module) throws Exception;
+  }
+
+  /*** Outcome of one stage of one module ***/
+  private static class StageResult {
+    final MavenProject module;
+    final boolean frontEnd;
+    final boolean proceed;
+    /* Failure of the stage, null if it completed */
+    final Exception failure;
+
+    StageResult(MavenProject module, boolean frontEnd, boolean proceed, Exception failure) {
+      this.module = module;
+      this.frontEnd = frontEnd;
+      this.proceed = proceed;
+      this.failure = failure;
+    }
+
+    /*** Run the stage, a failure is reported in the result, with the module it belongs to ***/
+    static StageResult of(MavenProject module, boolean frontEnd, ModuleTask task) {
+      try {
+        return new StageResult(module, frontEnd, task.run(module), null);
+      } catch (Exception e) {
+        return new StageResult(module, frontEnd, false, e);
+      }
+    }
+  }
+
+  private final Log logger;
+  private final int threads;
+  private final int analyzerThreads;
+  private final boolean ignoreError;
+
+  public ModuleScheduler(Log logger, int threads, boolean ignoreError) {
+    this(logger, threads, 1, ignoreError);
+  }
+
+  public ModuleScheduler(Log logger, int threads, int analyzerThreads, boolean ignoreError) {
+    this.logger = logger;
+    this.threads = Math.max(1, threads);
+    this.analyzerThreads = Math.max(1, analyzerThreads);
+    this.ignoreError = ignoreError;
+  }
+
+  /***
+   * Parse the worker count, either a plain number ("4") or
+   * a multiple of the available cores ("1C", "0.5C").
+   * @param spec the value of xvsa.threads
+   * @return the number of workers, at least 1
+   * @throws MojoExecutionException if the value cannot be parsed
+   */
+  public static int parseThreads(String spec) throws MojoExecutionException {
+    if (spec == null || spec.trim().isEmpty()) {
+      return 1;
+    }
+    String value = spec.trim();
+    try {
+      if (value.endsWith("C") || value.endsWith("c")) {
+        double factor = Double.parseDouble(value.substring(0, value.length() - 1));
+        return Math.max(1, (int) (factor * Runtime.getRuntime().availableProcessors()));
+      }
+      return Math.max(1, Integer.parseInt(value));
+    } catch (NumberFormatException e) {
+      throw new MojoExecutionException("Invalid thread count : " + spec + ", expecting N or NC");
+    }
+  }
+
+  /***
+   * Build the module dependency graph, only dependencies that are
+   * part of the given modules are kept.
+   * @param modules reactor modules
+   * @return for each module, the modules it depends on
+   */
+  public static Map<MavenProject, List<MavenProject>> buildDependencyGraph(Collection<MavenProject> modules) {
+    Map<String, MavenProject> byArtifactKey = new HashMap<>();
+    for (MavenProject module : modules) {
+      byArtifactKey.put(module.getGroupId() + ":" + module.getArtifactId(), module);
+    }
+    Map<MavenProject, List<MavenProject>> graph = new LinkedHashMap<>();
+    for (MavenProject module : modules) {
+      List<MavenProject> deps = new ArrayList<>();
+      for (Dependency dependency : module.getDependencies()) {
+        MavenProject dep = byArtifactKey.get(dependency.getGroupId() + ":" + dependency.getArtifactId());
+        if (dep != null && dep != module && !deps.contains(dep)) {
+          deps.add(dep);
+        }
+      }
+      graph.put(module, deps);
+    }
+    return graph;
+  }
+
+  /***
+   * Run the task for all modules, respecting the dependency order.
+   * On failure the remaining modules are cancelled, unless errors are ignored.
+   * @param modules modules in their preferred order
+   * @param task the work for one module
+   * @throws MojoExecutionException on the first failure if errors are not ignored
+   */
+  public void run(List<MavenProject> modules, ModuleTask task) throws MojoExecutionException {
+    run(modules, task, null);
+  }
+
+  /***
+   * Run the front end task for all modules, respecting the dependency order,
+   * and the analyzer task for every module the front end task handed over.
+   * Dependent modules only wait for the front end stage.
+   * On failure the remaining work is cancelled, unless errors are ignored, then
+   * the dependents of the failed module are run as if it had succeeded.
+   * @param modules modules in their preferred order
+   * @param frontEnd the first stage for one module
+   * @param analyzer the second stage for one module, may be null
+   * @throws MojoExecutionException on the first failure if errors are not ignored
+   */
+  public void run(List<MavenProject> modules, ModuleTask frontEnd, ModuleTask analyzer) throws MojoExecutionException {
+    Map<MavenProject, List<MavenProject>> graph = breakCycles(modules, buildDependencyGraph(modules));
+    Map<MavenProject, Integer> pendingDeps = new HashMap<>();
+    Map<MavenProject, List<MavenProject>> dependents = new HashMap<>();
+    for (MavenProject module : modules) {
+      pendingDeps.put(module, graph.get(module).size());
+      for (MavenProject dep : graph.get(module)) {
+        dependents.computeIfAbsent(dep, k -> new ArrayList<>()).add(module);
+      }
+    }
+    Deque<MavenProject> ready = new ArrayDeque<>();
+    for (MavenProject module : modules) {
+      if (pendingDeps.get(module) == 0) {
+        ready.add(module);
+      }
+    }
+
+    logger.info("Scheduling " + modules.size() + " modules on " + threads + " worker(s)"
+      + (analyzer == null ? "" : " and " + analyzerThreads + " analyzer worker(s)"));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, namedThreadFactory("xvsa-module"));
+    ExecutorService analyzerExecutor = analyzer == null ? null :
+      Executors.newFixedThreadPool(analyzerThreads, namedThreadFactory("xvsa-analyzer"));
+    // Both stages report to the same queue
+    BlockingQueue<Future<StageResult>> done = new LinkedBlockingQueue<>();
+    CompletionService<StageResult> frontEndStage = new ExecutorCompletionService<>(executor, done);
+    CompletionService<StageResult> analyzerStage = analyzer == null ? null :
+      new ExecutorCompletionService<>(analyzerExecutor, done);
+    Set<MavenProject> remaining = new LinkedHashSet<>(modules);
+    List<Future<StageResult>> submitted = new ArrayList<>();
+    Exception failure = null;
+    int running = 0;
+    try {
+      while (running > 0 || (failure == null && !ready.isEmpty())) {
+        while (failure == null && !ready.isEmpty()) {
+          MavenProject module = ready.poll();
+          remaining.remove(module);
+          submitted.add(frontEndStage.submit(() -> StageResult.of(module, true, frontEnd)));
+          running++;
+        }
+        Future<StageResult> next = done.take();
+        running--;
+        StageResult finished;
+        try {
+          finished = next.get();
+        } catch (CancellationException e) {
+          continue;
+        } catch (ExecutionException e) {
+          // Not an exception of the task, such as an Error, always fatal
+          if (failure == null) {
+            Throwable cause = e.getCause();
+            failure = cause instanceof Exception ? (Exception) cause : e;
+            logger.error("Processing module failed, cancelling the remaining " + (remaining.size() + running) + " tasks");
+            submitted.forEach(f -> f.cancel(true));
+          }
+          continue;
+        }
+        if (finished.failure != null) {
+          if (!ignoreError) {
+            if (failure == null) {
+              failure = finished.failure;
+              logger.error("Processing module failed, cancelling the remaining " + (remaining.size() + running) + " tasks");
+              submitted.forEach(f -> f.cancel(true));
+            }
+            continue;
+          }
+          logger.warn("Processing module " + finished.module.getArtifactId() + " failed, yet continue : "
+            + finished.failure.getLocalizedMessage());
+        }
+        if (!finished.frontEnd) {
+          continue;
+        }
+        if (finished.proceed && analyzerStage != null && failure == null) {
+          MavenProject module = finished.module;
+          submitted.add(analyzerStage.submit(() -> StageResult.of(module, false, analyzer)));
+          running++;
+        }
+        // Released on failure too, as the modules were processed one after the other before
+        for (MavenProject dependent : dependents.getOrDefault(finished.module, Collections.emptyList())) {
+          int left = pendingDeps.merge(dependent, -1, Integer::sum);
+          if (left == 0 && remaining.contains(dependent)) {
+            ready.add(dependent);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted while processing modules");
+    } finally {
+      executor.shutdownNow();
+      if (analyzerExecutor != null) {
+        analyzerExecutor.shutdownNow();
+      }
+    }
+    if (failure instanceof MojoExecutionException) {
+      throw (MojoExecutionException) failure;
+    } else if (failure != null) {
+      throw new MojoExecutionException("Processing module failed, due to " + failure.getLocalizedMessage(), failure);
+    }
+  }
+
+  /***
+   * Find the modules that can never become ready, as they are part of a dependency cycle
+   * or depend on one, and chain them one after the other in their given order, so they
+   * still never run concurrently with what they depend on.
+   * @return the graph to schedule, the given one if it has no cycle
+   */
+  private Map<MavenProject, List<MavenProject>> breakCycles(List<MavenProject> modules,
+                                                           Map<MavenProject, List<MavenProject>> graph) {
+    Map<MavenProject, Integer> pendingDeps = new HashMap<>();
+    Map<MavenProject, List<MavenProject>> dependents = new HashMap<>();
+    Deque<MavenProject> ready = new ArrayDeque<>();
+    for (MavenProject module : modules) {
+      pendingDeps.put(module, graph.get(module).size());
+      for (MavenProject dep : graph.get(module)) {
+        dependents.computeIfAbsent(dep, k -> new ArrayList<>()).add(module);
+      }
+      if (graph.get(module).isEmpty()) {
+        ready.add(module);
+      }
+    }
+    Set<MavenProject> ordered = new HashSet<>();
+    while (!ready.isEmpty()) {
+      MavenProject module = ready.poll();
+      ordered.add(module);
+      for (MavenProject dependent : dependents.getOrDefault(module, Collections.emptyList())) {
+        if (pendingDeps.merge(dependent, -1, Integer::sum) == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+    if (ordered.size() == modules.size()) {
+      return graph;
+    }
+    Map<MavenProject, List<MavenProject>> acyclic = new LinkedHashMap<>();
+    MavenProject previous = null;
+    int stuck = 0;
+    for (MavenProject module : modules) {
+      if (ordered.contains(module)) {
+        acyclic.put(module, graph.get(module));
+        continue;
+      }
+      // Keep the dependencies outside of the cycles, and wait for the previous stuck module
+      List<MavenProject> deps = new ArrayList<>();
+      for (MavenProject dep : graph.get(module)) {
+        if (ordered.contains(dep)) {
+          deps.add(dep);
+        }
+      }
+      if (previous != null) {
+        deps.add(previous);
+      }
+      acyclic.put(module, deps);
+      previous = module;
+      stuck++;
+    }
+    logger.warn("Cyclic module dependencies found, scheduling " + stuck + " modules one after the other in reactor order");
+    return acyclic;
+  }
+
+  static ThreadFactory namedThreadFactory(String prefix) {
+    ThreadFactory delegate = Executors.defaultThreadFactory();
+    return new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread thread = delegate.newThread(r);
+        thread.setName(prefix + "-" + (++count));
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+}
@@ -0,0 +1,151 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/***
+ * Watches the class and source directories of the modules, and reports which
+ * modules changed. The watch service only reports the entries of a directory,
+ * every subdirectory is registered, new ones as they are created.
+ * A root deleted and created again, as by a clean build, is registered again
+ * once it exists.
+ * @param <M> the module owning the watched roots
+ */
+public class ModuleWatcher<M> implements Closeable {
+
+  private final Log logger;
+  private final WatchService service;
+  private final Map<WatchKey, Path> keys = new HashMap<>();
+  private final Set<Path> watched = new HashSet<>();
+  /* Module of each root, a path belongs to the module of its deepest root */
+  private final PathTrie<M> owners = new PathTrie<>();
+  private final Map<Path, M> roots = new LinkedHashMap<>();
+  private boolean limitReported = false;
+
+  public ModuleWatcher(Log logger) throws IOException {
+    this.logger = logger;
+    this.service = FileSystems.getDefault().newWatchService();
+  }
+
+  /***
+   * Watch the directory and all its subdirectories, the directory may not exist yet.
+   * @param root directory
+   * @param module module the changes under the directory are reported for
+   */
+  public void watch(Path root, M module) {
+    Path absolute = root.toAbsolutePath().normalize();
+    owners.put(absolute, module);
+    roots.put(absolute, module);
+    if (Files.isDirectory(absolute)) {
+      register(absolute);
+    }
+  }
+
+  /*** Number of directories currently watched ***/
+  public int getDirectoryCount() {
+    return watched.size();
+  }
+
+  /***
+   * Wait for changes, and return once no change was seen for the debounce delay,
+   * so a burst of changes written by a compiler is reported once.
+   * @param debounceMillis quiet delay ending a burst of changes
+   * @return the modules with changes, at least one
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Set<M> take(long debounceMillis) throws InterruptedException {
+    Set<M> changed = new LinkedHashSet<>();
+    while (true) {
+      WatchKey key = service.poll(Math.max(1, debounceMillis), TimeUnit.MILLISECONDS);
+      if (key != null) {
+        handle(key, changed);
+        continue;
+      }
+      registerMissingRoots(changed);
+      if (!changed.isEmpty()) {
+        return changed;
+      }
+    }
+  }
+
+  private void handle(WatchKey key, Set<M> changed) {
+    Path dir = keys.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (dir == null) {
+        continue;
+      }
+      if (event.kind() == OVERFLOW) {
+        // Events were lost, the whole directory is considered changed
+        logger.debug("Watch events lost under " + dir);
+        addOwner(dir, changed);
+        continue;
+      }
+      Path child = dir.resolve((Path) event.context());
+      if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+        register(child);
+      }
+      addOwner(child, changed);
+    }
+    if (!key.reset()) {
+      // The directory is gone
+      keys.remove(key);
+      watched.remove(dir);
+    }
+  }
+
+  private void addOwner(Path path, Set<M> changed) {
+    M owner = owners.longestPrefixValue(path);
+    if (owner != null) {
+      changed.add(owner);
+    }
+  }
+
+  private void registerMissingRoots(Set<M> changed) {
+    for (Map.Entry<Path, M> root : roots.entrySet()) {
+      if (!watched.contains(root.getKey()) && Files.isDirectory(root.getKey())) {
+        logger.debug("Watching again " + root.getKey());
+        register(root.getKey());
+        changed.add(root.getValue());
+      }
+    }
+  }
+
+  private void register(Path dir) {
+    try {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+          if (!watched.contains(subdir)) {
+            keys.put(subdir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), subdir);
+            watched.add(subdir);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      // Usually the limit of watches per user, changes under the directory are missed
+      if (!limitReported) {
+        logger.warn("Cannot watch " + dir + ", changes under it are not seen : " + e.getMessage());
+        limitReported = true;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    service.close();
+  }
+}
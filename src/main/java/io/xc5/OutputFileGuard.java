@@ -0,0 +1,108 @@
+package io.xc5;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/***
+ * Makes sure an output file is generated only once, even when several
+ * modules (threads of this build, or other builds sharing the same result
+ * directory) ask for it at the same time.
+ */
+public class OutputFileGuard {
+
+  /*** Generates the output file ***/
+  public interface Generator {
+    void generate() throws MojoExecutionException;
+  }
+
+  /*** Generates several output files at once ***/
+  public interface BatchGenerator {
+    /***
+     * @param missing the outputs which do not exist yet, never empty
+     */
+    void generate(List<File> missing) throws MojoExecutionException;
+  }
+
+  private static final ConcurrentHashMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+  private OutputFileGuard() {
+    // utility class with only static methods
+  }
+
+  /***
+   * Run the generator unless the output file already exists. The check and the
+   * generation happen while holding a lock on the output, threads of this JVM
+   * wait on an in-memory lock, other processes on a file lock next to the output.
+   * @param output the file produced by the generator
+   * @param generator creates the output
+   * @return true if the output was generated, false if it existed already
+   * @throws MojoExecutionException if the generator fails or the lock cannot be taken
+   */
+  public static boolean generateIfAbsent(File output, Generator generator) throws MojoExecutionException {
+    return !generateAllIfAbsent(Collections.singletonList(output), missing -> generator.generate()).isEmpty();
+  }
+
+  /***
+   * Run the generator for the outputs which do not exist yet, while holding the
+   * locks of all outputs. Locks are always taken in path order, so batches
+   * sharing some outputs cannot dead lock each other.
+   * @param outputs the files produced by the generator
+   * @param generator creates the missing outputs
+   * @return the outputs the generator was asked to create, empty if all existed already
+   * @throws MojoExecutionException if the generator fails or a lock cannot be taken
+   */
+  public static List<File> generateAllIfAbsent(List<File> outputs, BatchGenerator generator) throws MojoExecutionException {
+    SortedMap<String, File> sorted = new TreeMap<>();
+    for (File output : outputs) {
+      File absoluteOutput = output.getAbsoluteFile();
+      sorted.put(absoluteOutput.getPath(), absoluteOutput);
+    }
+    Deque<ReentrantLock> locks = new ArrayDeque<>();
+    Deque<FileChannel> channels = new ArrayDeque<>();
+    String current = null;
+    try {
+      for (String path : sorted.keySet()) {
+        current = path;
+        ReentrantLock lock = LOCKS.computeIfAbsent(path, k -> new ReentrantLock());
+        lock.lock();
+        locks.push(lock);
+        FileChannel channel = FileChannel.open(new File(path + ".lock").toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channels.push(channel);
+        // Released when the channel is closed
+        channel.lock();
+      }
+      List<File> missing = new ArrayList<>();
+      for (File output : sorted.values()) {
+        if (!output.exists()) {
+          missing.add(output);
+        }
+      }
+      if (!missing.isEmpty()) {
+        generator.generate(missing);
+      }
+      return missing;
+    } catch (IOException e) {
+      throw new XvsaPluginException("Cannot lock output file : " + current, e);
+    } finally {
+      while (!channels.isEmpty()) {
+        try {
+          channels.pop().close();
+        } catch (IOException e) {
+          // The lock goes away with the channel anyway
+        }
+      }
+      while (!locks.isEmpty()) {
+        locks.pop().unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package io.xc5;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * Prefix tree of paths, one node per path name element.
+ * Answers containment questions in time proportional to the depth of
+ * the path, instead of comparing each path against every other one.
+ * @param <V> value attached to the inserted paths
+ */
+public class PathTrie<V> {
+
+  private static class Node<V> {
+    private final Map<String, Node<V>> children = new HashMap<>(4);
+    private final Path path;
+    private boolean present;
+    private V value;
+
+    Node(Path path) {
+      this.path = path;
+    }
+  }
+
+  private final Node<V> root = new Node<>(null);
+
+  public void add(Path path) {
+    put(path, null);
+  }
+
+  /***
+   * Insert a path, it is made absolute and normalized first.
+   * @param path the path
+   * @param value value attached to the path, replaces the former one
+   */
+  public void put(Path path, V value) {
+    Path normalized = normalize(path);
+    Node<V> node = child(root, rootKey(normalized), true);
+    for (Path name : normalized) {
+      node = child(node, name.toString(), true);
+    }
+    node.present = true;
+    node.value = value;
+  }
+
+  /***
+   * @param path the path
+   * @return true if the path itself was inserted
+   */
+  public boolean contains(Path path) {
+    Node<V> node = find(normalize(path));
+    return node != null && node.present;
+  }
+
+  /***
+   * @param path the path
+   * @param strict if true the path itself does not count as its own ancestor
+   * @return true if an inserted path is an ancestor of the path
+   */
+  public boolean hasAncestor(Path path, boolean strict) {
+    Path normalized = normalize(path);
+    Node<V> node = child(root, rootKey(normalized), false);
+    int depth = 0;
+    int count = normalized.getNameCount();
+    while (node != null) {
+      if (node.present && (!strict || depth < count)) {
+        return true;
+      }
+      if (depth == count) {
+        return false;
+      }
+      node = child(node, normalized.getName(depth).toString(), false);
+      depth++;
+    }
+    return false;
+  }
+
+  /***
+   * @param path the path
+   * @return the value of the deepest inserted path which is the path or one of its ancestors, null if none
+   */
+  public V longestPrefixValue(Path path) {
+    Path normalized = normalize(path);
+    Node<V> node = child(root, rootKey(normalized), false);
+    V found = null;
+    int depth = 0;
+    while (node != null) {
+      if (node.present) {
+        found = node.value;
+      }
+      if (depth == normalized.getNameCount()) {
+        break;
+      }
+      node = child(node, normalized.getName(depth).toString(), false);
+      depth++;
+    }
+    return found;
+  }
+
+  /***
+   * @return the deepest directory which is an ancestor of (or equal to) all inserted paths,
+   * null if the paths do not share a root or nothing was inserted
+   */
+  public Path commonAncestor() {
+    if (root.children.size() != 1) {
+      return null;
+    }
+    Node<V> node = root.children.values().iterator().next();
+    while (!node.present && node.children.size() == 1) {
+      node = node.children.values().iterator().next();
+    }
+    return node.path;
+  }
+
+  private Node<V> find(Path normalized) {
+    Node<V> node = child(root, rootKey(normalized), false);
+    for (int i = 0; node != null && i < normalized.getNameCount(); i++) {
+      node = child(node, normalized.getName(i).toString(), false);
+    }
+    return node;
+  }
+
+  private static <V> Node<V> child(Node<V> node, String key, boolean create) {
+    Node<V> child = node.children.get(key);
+    if (child == null && create) {
+      child = new Node<>(node.path == null ? Paths.get(key) : node.path.resolve(key));
+      node.children.put(key, child);
+    }
+    return child;
+  }
+
+  private static String rootKey(Path normalized) {
+    Path pathRoot = normalized.getRoot();
+    return pathRoot == null ? "" : pathRoot.toString();
+  }
+
+  private static Path normalize(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+}
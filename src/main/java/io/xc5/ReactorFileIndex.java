@@ -0,0 +1,392 @@
+package io.xc5;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+/***
+ * File system index shared by all modules of a build.
+ * Every class or source root is walked at most once, with a single
+ * fork-join pass over its subtrees collecting everything the plugin needs
+ * to know about it, and file existence checks are answered from a stat cache.
+ * With directory stamps, the unchanged directories of the source roots are not
+ * listed again from one build to the next.
+ * The source files are listed with the source filter, the counts, newest time
+ * and digest cover the whole tree, unless excluded directories are pruned.
+ */
+public class ReactorFileIndex {
+
+  /*** What a single walk over a directory tree found ***/
+  public static class TreeSummary {
+    private int classCount;
+    private long classBytes;
+    private long sourceBytes;
+    private long newestModified;
+    private long digestHigh;
+    private long digestLow;
+    private final List<String> sourceFiles = new ArrayList<>();
+
+    private void merge(TreeSummary other) {
+      classCount += other.classCount;
+      classBytes += other.classBytes;
+      sourceBytes += other.sourceBytes;
+      newestModified = Math.max(newestModified, other.newestModified);
+      digestHigh += other.digestHigh;
+      digestLow += other.digestLow;
+      sourceFiles.addAll(other.sourceFiles);
+    }
+
+    public int getClassCount() {
+      return classCount;
+    }
+
+    public long getClassBytes() {
+      return classBytes;
+    }
+
+    public long getSourceBytes() {
+      return sourceBytes;
+    }
+
+    public long getNewestModified() {
+      return newestModified;
+    }
+
+    public List<String> getSourceFiles() {
+      return Collections.unmodifiableList(sourceFiles);
+    }
+
+    /*** Digest of relative path, size and modification time of all files in the tree ***/
+    public String getDigest() {
+      return String.format("%016x%016x", digestHigh, digestLow);
+    }
+  }
+
+  private static final TreeSummary EMPTY = new TreeSummary();
+
+  private final Map<String, TreeSummary> trees = new ConcurrentHashMap<>();
+  private final Map<String, TreeSummary> sourceTrees = new ConcurrentHashMap<>();
+  private final Map<String, Optional<BasicFileAttributes>> stats = new ConcurrentHashMap<>();
+  private final SourceFilter sourceFilter;
+  private volatile DirectoryStamps stamps;
+  private volatile boolean digestSources;
+
+  public ReactorFileIndex() {
+    this(SourceFilter.DEFAULT);
+  }
+
+  /***
+   * @param sourceFilter selects the source files of the source roots
+   */
+  public ReactorFileIndex(SourceFilter sourceFilter) {
+    this.sourceFilter = sourceFilter;
+  }
+
+  /***
+   * Use the stamps of the previous build for the source roots.
+   * @param stamps stamps loaded with the source filter of this index, null for none
+   */
+  public void setStamps(DirectoryStamps stamps) {
+    this.stamps = stamps;
+  }
+
+  /***
+   * Digest the whole source roots, for the fingerprints of xvsa.incremental.
+   * A source root is then walked once for both its digest and its source files,
+   * the excluded directories are walked too but not listed, and the stamps are not
+   * used, they cannot tell a file rewritten in place.
+   * @param digestSources true to walk the source roots completely
+   */
+  public void setDigestSources(boolean digestSources) {
+    this.digestSources = digestSources;
+  }
+
+  /***
+   * Walk the directory once and remember what was found, nothing is pruned
+   * and the directory stamps are not used.
+   * @param dir absolute or relative directory path
+   * @return the summary, empty if the directory does not exist
+   */
+  public TreeSummary tree(String dir) {
+    return tree(dir, trees, false, null);
+  }
+
+  /***
+   * Walk a source root once and remember what was found, the directories excluded
+   * by the source filter are skipped unless the source roots are digested.
+   * @param dir absolute or relative directory path
+   * @return the summary, empty if the directory does not exist
+   */
+  public TreeSummary sourceTree(String dir) {
+    if (digestSources) {
+      return tree(dir);
+    }
+    return tree(dir, sourceTrees, true, stamps);
+  }
+
+  private TreeSummary tree(String dir, Map<String, TreeSummary> cache, boolean prune, DirectoryStamps dirStamps) {
+    String key = new File(dir).getAbsolutePath();
+    TreeSummary summary = cache.get(key);
+    if (summary == null) {
+      BasicFileAttributes attrs = stat(new File(key));
+      summary = attrs != null && attrs.isDirectory() ? walk(Paths.get(key), attrs, sourceFilter, prune, dirStamps) : EMPTY;
+      TreeSummary existing = cache.putIfAbsent(key, summary);
+      if (existing != null) {
+        summary = existing;
+      }
+    }
+    return summary;
+  }
+
+  /***
+   * Build the index of one module from its class directory and source roots.
+   */
+  public ModuleFileIndex module(String binDir, String[] srcDirs) {
+    TreeSummary classes = binDir == null ? EMPTY : tree(binDir);
+    List<TreeSummary> sources = srcDirs == null ? Collections.emptyList() : Arrays.stream(srcDirs)
+      .filter(srcDir -> srcDir != null && !srcDir.isEmpty())
+      .parallel()
+      .map(this::sourceTree)
+      .collect(Collectors.toList());
+    return new ModuleFileIndex(classes, sources);
+  }
+
+  public boolean exists(File file) {
+    return stat(file) != null;
+  }
+
+  public boolean isDirectory(File file) {
+    BasicFileAttributes attrs = stat(file);
+    return attrs != null && attrs.isDirectory();
+  }
+
+  /***
+   * @return the cached attributes of the file, null if it does not exist
+   */
+  public BasicFileAttributes stat(File file) {
+    return stats.computeIfAbsent(file.getAbsolutePath(), path -> {
+      try {
+        return Optional.of(Files.readAttributes(Paths.get(path), BasicFileAttributes.class));
+      } catch (IOException e) {
+        return Optional.empty();
+      }
+    }).orElse(null);
+  }
+
+  /***
+   * Forget everything, for long running goals where the file system changes.
+   * The directory stamps are kept, they are checked against the file system on each walk.
+   */
+  public void clear() {
+    trees.clear();
+    sourceTrees.clear();
+    stats.clear();
+  }
+
+  private static TreeSummary walk(Path root, BasicFileAttributes attrs, SourceFilter filter, boolean prune,
+                                  DirectoryStamps dirStamps) {
+    if (dirStamps != null) {
+      dirStamps.rootWalked(root);
+    }
+    return ForkJoinPool.commonPool().invoke(new WalkTask(root, root, attrs, filter, prune, true, dirStamps));
+  }
+
+  /*** Lists one directory, and forks a task for each of its subdirectories ***/
+  private static class WalkTask extends RecursiveTask<TreeSummary> {
+    private static final long serialVersionUID = 1L;
+
+    private final Path root;
+    private final Path dir;
+    private final BasicFileAttributes dirAttrs;
+    private final SourceFilter filter;
+    /* Skip the excluded directories, otherwise they are walked without listing their source files */
+    private final boolean prune;
+    /* False under an excluded directory */
+    private final boolean listed;
+    /* Only used when pruning, the stamps do not record the excluded directories */
+    private final DirectoryStamps stamps;
+
+    WalkTask(Path root, Path dir, BasicFileAttributes dirAttrs, SourceFilter filter, boolean prune, boolean listed,
+             DirectoryStamps stamps) {
+      this.root = root;
+      this.dir = dir;
+      this.dirAttrs = dirAttrs;
+      this.filter = filter;
+      this.prune = prune;
+      this.listed = listed;
+      this.stamps = stamps;
+    }
+
+    @Override
+    protected TreeSummary compute() {
+      if (stamps != null) {
+        TreeSummary unchanged = computeFromStamp();
+        if (unchanged != null) {
+          return unchanged;
+        }
+      }
+      TreeSummary summary = new TreeSummary();
+      List<WalkTask> subdirs = new ArrayList<>();
+      int entryCount = 0;
+      List<String> sourceNames = stamps == null ? null : new ArrayList<>();
+      List<Long> sourceSizes = stamps == null ? null : new ArrayList<>();
+      boolean complete = true;
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          entryCount++;
+          BasicFileAttributes attrs;
+          try {
+            attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isSymbolicLink()) {
+              attrs = linkedFile(entry, attrs);
+            }
+          } catch (IOException e) {
+            complete = false;
+            continue;
+          }
+          Path relative = root.relativize(entry);
+          if (attrs.isDirectory()) {
+            boolean excluded = listed && filter.isExcludedDirectory(relative);
+            if (!excluded || !prune) {
+              WalkTask task = new WalkTask(root, entry, attrs, filter, prune, listed && !excluded, stamps);
+              task.fork();
+              subdirs.add(task);
+            }
+          } else {
+            int sourceCount = summary.sourceFiles.size();
+            visitFile(summary, entry, relative, attrs);
+            if (sourceNames != null && summary.sourceFiles.size() > sourceCount) {
+              sourceNames.add(entry.getFileName().toString());
+              sourceSizes.add(attrs.size());
+            }
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        // Partial summary, unreadable entries are skipped
+        complete = false;
+      }
+      if (stamps != null && complete && dirAttrs != null) {
+        long[] sizes = new long[sourceSizes.size()];
+        for (int i = 0; i < sizes.length; i++) {
+          sizes[i] = sourceSizes.get(i);
+        }
+        String[] subdirNames = new String[subdirs.size()];
+        for (int i = 0; i < subdirNames.length; i++) {
+          subdirNames[i] = subdirs.get(i).dir.getFileName().toString();
+        }
+        stamps.record(dir.toString(), new DirectoryStamps.Entry(dirAttrs.lastModifiedTime().toMillis(), entryCount,
+          summary.classCount, summary.classBytes, summary.newestModified, summary.digestHigh, summary.digestLow,
+          sourceNames.toArray(new String[0]), sizes, subdirNames));
+      }
+      for (WalkTask task : subdirs) {
+        summary.merge(task.join());
+      }
+      return summary;
+    }
+
+    /***
+     * Rebuild the summary of the files of the directory from its stamp, if the directory did not change,
+     * and walk its subdirectories.
+     * @return the summary, null if the directory has to be listed
+     */
+    private TreeSummary computeFromStamp() {
+      if (dirAttrs == null) {
+        return null;
+      }
+      String[] names = dir.toFile().list();
+      if (names == null) {
+        return null;
+      }
+      String key = dir.toString();
+      DirectoryStamps.Entry entry = stamps.lookup(key, dirAttrs.lastModifiedTime().toMillis(), names.length);
+      if (entry == null) {
+        return null;
+      }
+      List<BasicFileAttributes> subdirAttrs = new ArrayList<>(entry.subdirs.length);
+      for (String subdir : entry.subdirs) {
+        try {
+          BasicFileAttributes attrs = Files.readAttributes(dir.resolve(subdir), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (!attrs.isDirectory()) {
+            return null;
+          }
+          subdirAttrs.add(attrs);
+        } catch (IOException e) {
+          return null;
+        }
+      }
+      List<WalkTask> subdirs = new ArrayList<>(entry.subdirs.length);
+      for (int i = 0; i < entry.subdirs.length; i++) {
+        WalkTask task = new WalkTask(root, dir.resolve(entry.subdirs[i]), subdirAttrs.get(i), filter, prune, listed, stamps);
+        task.fork();
+        subdirs.add(task);
+      }
+      TreeSummary summary = new TreeSummary();
+      summary.classCount = entry.classCount;
+      summary.classBytes = entry.classBytes;
+      summary.newestModified = entry.newestModified;
+      summary.digestHigh = entry.digestHigh;
+      summary.digestLow = entry.digestLow;
+      String prefix = dir.toAbsolutePath().toString() + File.separator;
+      for (int i = 0; i < entry.sourceNames.length; i++) {
+        summary.sourceFiles.add(prefix + entry.sourceNames[i]);
+        summary.sourceBytes += entry.sourceSizes[i];
+      }
+      stamps.record(key, entry);
+      for (WalkTask task : subdirs) {
+        summary.merge(task.join());
+      }
+      return summary;
+    }
+
+    /***
+     * Link to a file, classified and sized as the file it points to, as Files.walk does.
+     * Links to directories are not followed, they could form cycles.
+     * @return the attributes of the linked file, those of the link if it points to a directory or nowhere
+     */
+    private static BasicFileAttributes linkedFile(Path link, BasicFileAttributes linkAttrs) {
+      try {
+        BasicFileAttributes target = Files.readAttributes(link, BasicFileAttributes.class);
+        return target.isDirectory() ? linkAttrs : target;
+      } catch (IOException e) {
+        // Dangling link
+        return linkAttrs;
+      }
+    }
+
+    private void visitFile(TreeSummary summary, Path file, Path relative, BasicFileAttributes attrs) {
+      String name = file.getFileName().toString();
+      long modified = attrs.lastModifiedTime().toMillis();
+      if (name.endsWith(MavenProjectConverter.CLASS_SUFFIX)) {
+        summary.classCount++;
+        summary.classBytes += attrs.size();
+      } else if (listed && attrs.isRegularFile() && filter.isSourceFile(relative)) {
+        summary.sourceFiles.add(file.toAbsolutePath().toString());
+        summary.sourceBytes += attrs.size();
+      }
+      summary.newestModified = Math.max(summary.newestModified, modified);
+      // Order independent digest, subtrees are merged in any order
+      byte[] entry = (relative + "=" + attrs.size() + ":" + modified).getBytes(StandardCharsets.UTF_8);
+      summary.digestHigh += fnv(entry, 0xcbf29ce484222325L);
+      summary.digestLow += fnv(entry, 0x84222325cbf29ce4L);
+    }
+  }
+
+  private static long fnv(byte[] bytes, long hash) {
+    for (byte b : bytes) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    // Mix the result to spread small differences over all bits
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
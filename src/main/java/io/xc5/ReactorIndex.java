@@ -0,0 +1,88 @@
+package io.xc5;
+
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/***
+ * Index of the projects of a reactor, built once per build.
+ * Every POM and base directory is canonicalized a single time, module
+ * lookups are then hash lookups and the parent/child module tree is
+ * resolved up front.
+ */
+public class ReactorIndex {
+
+  private final Map<File, MavenProject> byPom = new HashMap<>();
+  private final Map<File, MavenProject> byBasedir = new HashMap<>();
+  private final Map<MavenProject, List<MavenProject>> children = new HashMap<>();
+  private final Map<MavenProject, MavenProject> parents = new HashMap<>();
+
+  /***
+   * @param projects all projects of the reactor
+   */
+  public ReactorIndex(Collection<MavenProject> projects) {
+    for (MavenProject project : projects) {
+      if (project.getFile() != null) {
+        byPom.putIfAbsent(canonical(project.getFile()), project);
+      }
+      if (project.getBasedir() != null) {
+        byBasedir.putIfAbsent(canonical(project.getBasedir()), project);
+      }
+    }
+    for (MavenProject project : projects) {
+      List<MavenProject> modules = new ArrayList<>();
+      if (project.getBasedir() != null) {
+        for (String modulePathStr : project.getModules()) {
+          MavenProject module = find(new File(project.getBasedir(), modulePathStr));
+          if (module != null && module != project && !modules.contains(module)) {
+            modules.add(module);
+            parents.putIfAbsent(module, project);
+          }
+        }
+      }
+      children.put(project, Collections.unmodifiableList(modules));
+    }
+  }
+
+  /***
+   * Find the project of a module entry.
+   * @param modulePath module directory or POM file
+   * @return the project, null if it is not part of the reactor
+   */
+  public MavenProject find(File modulePath) {
+    File file = canonical(modulePath);
+    MavenProject found = byPom.get(file);
+    if (found == null) {
+      found = byPom.get(new File(file, "pom.xml"));
+    }
+    if (found == null) {
+      found = byBasedir.get(file);
+    }
+    return found;
+  }
+
+  /***
+   * @return the projects listed in the modules section of the project, in declaration order
+   */
+  public List<MavenProject> getChildren(MavenProject project) {
+    List<MavenProject> modules = children.get(project);
+    return modules == null ? Collections.emptyList() : modules;
+  }
+
+  /***
+   * @return the aggregator listing the project as a module, null for a top level project
+   */
+  public MavenProject getParent(MavenProject project) {
+    return parents.get(project);
+  }
+
+  private static File canonical(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile().toPath().normalize().toFile();
+    }
+  }
+}
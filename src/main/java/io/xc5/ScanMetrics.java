@@ -0,0 +1,212 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Wall clock timings and counters of a scan, per module.
+ * Written as JSON and as OpenMetrics (Prometheus text) files, so the scan cost
+ * can be tracked over time.
+ */
+public class ScanMetrics {
+
+  static final String REACTOR = "reactor";
+
+  /* Wall clock time of all the stages of one module, the other phases of a module are part of it,
+     except the waits on other modules */
+  static final String TOTAL = "total";
+
+  /*** Stops its timer when closed ***/
+  public interface Timer extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /*** Timings and counters of one module ***/
+  public static class ModuleMetrics {
+    private final Map<String, Long> phaseNanos = new TreeMap<>();
+    private final Map<String, Long> libraryNanos = new TreeMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+
+    synchronized void addPhase(String phase, long nanos) {
+      phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    synchronized void addLibrary(String library, long nanos) {
+      libraryNanos.merge(library, nanos, Long::sum);
+    }
+
+    synchronized void count(String name, long delta) {
+      counters.merge(name, delta, Long::sum);
+    }
+
+    public synchronized Map<String, Long> getPhaseNanos() {
+      return new TreeMap<>(phaseNanos);
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+      return new TreeMap<>(counters);
+    }
+
+    synchronized JSONObject toJson(String module) {
+      JSONObject phases = new JSONObject();
+      phaseNanos.forEach((k, v) -> phases.put(k, seconds(v)));
+      JSONObject libraries = new JSONObject();
+      libraryNanos.forEach((k, v) -> libraries.put(k, seconds(v)));
+      JSONObject counts = new JSONObject();
+      counters.forEach(counts::put);
+      JSONObject json = new JSONObject();
+      json.put("module", module);
+      json.put("phases", phases);
+      json.put("libraries", libraries);
+      json.put("counts", counts);
+      return json;
+    }
+
+    synchronized void toOpenMetrics(String module, StringBuilder out) {
+      String label = "module=\"" + escape(module) + "\"";
+      family(out, "xvsa_phase_seconds", "Wall clock time spent per phase.", label, "phase", phaseNanos, true);
+      family(out, "xvsa_library_seconds", "Wall clock time spent per library V-Table.", label, "library", libraryNanos, true);
+      family(out, "xvsa_count", "Number of classes, jars, source files and cache hits.", label, "name", counters, false);
+    }
+
+    private static void family(StringBuilder out, String name, String help, String label, String key,
+                               Map<String, Long> values, boolean nanos) {
+      if (values.isEmpty()) {
+        return;
+      }
+      out.append("# TYPE ").append(name).append(" gauge\n");
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      values.forEach((k, v) -> out.append(name).append('{').append(label).append(',').append(key)
+        .append("=\"").append(escape(k)).append("\"} ").append(nanos ? String.valueOf(seconds(v)) : String.valueOf(v))
+        .append('\n'));
+    }
+  }
+
+  private final Map<String, ModuleMetrics> modules = new ConcurrentHashMap<>();
+
+  public boolean hasModule(String module) {
+    return modules.containsKey(module);
+  }
+
+  public ModuleMetrics module(String module) {
+    return modules.computeIfAbsent(module, k -> new ModuleMetrics());
+  }
+
+  /***
+   * Start timing a phase of a module, the time is added when the timer is closed.
+   */
+  public Timer time(String module, String phase) {
+    long start = System.nanoTime();
+    return () -> module(module).addPhase(phase, System.nanoTime() - start);
+  }
+
+  /***
+   * Start timing a wait of a module on the work of another one, like a library it shares.
+   * The time is added to the phase and taken out of the total of the module, the total
+   * timer running around the wait would count the cost of the other module twice.
+   */
+  public Timer timeWait(String module, String phase) {
+    long start = System.nanoTime();
+    return () -> {
+      long nanos = System.nanoTime() - start;
+      ModuleMetrics metrics = module(module);
+      metrics.addPhase(phase, nanos);
+      metrics.addPhase(TOTAL, -nanos);
+    };
+  }
+
+  /***
+   * Start timing the generation of one library for a module.
+   */
+  public Timer timeLibrary(String module, String library) {
+    long start = System.nanoTime();
+    return () -> module(module).addLibrary(library, System.nanoTime() - start);
+  }
+
+  public void count(String module, String name, long delta) {
+    module(module).count(name, delta);
+  }
+
+  /***
+   * Write the metrics of one module as name.metrics.json and name.metrics.prom.
+   * @param module module key, or REACTOR
+   * @param dir output directory
+   * @param fileName base name of the files
+   */
+  public void write(String module, String dir, String fileName, Log logger) {
+    ModuleMetrics metrics = modules.get(module);
+    if (metrics == null || dir == null) {
+      return;
+    }
+    StringBuilder openMetrics = new StringBuilder();
+    metrics.toOpenMetrics(module, openMetrics);
+    openMetrics.append("# EOF\n");
+    writeFile(new File(dir, fileName + ".metrics.json"), metrics.toJson(module).toString(2), logger);
+    writeFile(new File(dir, fileName + ".metrics.prom"), openMetrics.toString(), logger);
+  }
+
+  /***
+   * Add the timings and counters of a metrics JSON file written by write,
+   * to combine the metrics of several runs.
+   * @param file the name.metrics.json file
+   * @return the module key found in the file
+   * @throws IOException if the file cannot be read or parsed
+   */
+  public String read(File file) throws IOException {
+    JSONObject json;
+    try (Reader reader = new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8)) {
+      json = new JSONObject(new JSONTokener(reader));
+    } catch (JSONException e) {
+      throw new IOException("Invalid metrics file " + file.getPath() + " : " + e.getMessage(), e);
+    }
+    String module = json.optString("module", file.getName());
+    ModuleMetrics metrics = module(module);
+    JSONObject phases = json.optJSONObject("phases");
+    if (phases != null) {
+      phases.keySet().forEach(k -> metrics.addPhase(k, nanos(phases.getDouble(k))));
+    }
+    JSONObject libraries = json.optJSONObject("libraries");
+    if (libraries != null) {
+      libraries.keySet().forEach(k -> metrics.addLibrary(k, nanos(libraries.getDouble(k))));
+    }
+    JSONObject counts = json.optJSONObject("counts");
+    if (counts != null) {
+      counts.keySet().forEach(k -> metrics.count(k, counts.getLong(k)));
+    }
+    return module;
+  }
+
+  private static void writeFile(File file, String content, Log logger) {
+    try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+      writer.write(content);
+    } catch (IOException e) {
+      logger.warn("Cannot write metrics file " + file.getPath() + ", due to " + e.getLocalizedMessage());
+    }
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / 1e9;
+  }
+
+  private static long nanos(double seconds) {
+    return Math.round(seconds * 1e9);
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
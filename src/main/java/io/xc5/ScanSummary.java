@@ -0,0 +1,37 @@
+package io.xc5;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Collects noteworthy events of a scan, reported once all modules are done.
+ */
+public class ScanSummary {
+
+  private final List<String> timedOut = new ArrayList<>();
+
+  /***
+   * Record an invocation killed by its timeout.
+   * @param invocation name of the invocation, module key and tool
+   * @param timeoutSeconds the timeout that expired
+   */
+  public synchronized void recordTimeout(String invocation, long timeoutSeconds) {
+    timedOut.add(invocation + " (" + timeoutSeconds + "s)");
+  }
+
+  public synchronized List<String> getTimedOut() {
+    return new ArrayList<>(timedOut);
+  }
+
+  public synchronized void report(Log logger) {
+    if (timedOut.isEmpty()) {
+      return;
+    }
+    logger.warn(timedOut.size() + " invocation(s) timed out and were killed :");
+    for (String one : timedOut) {
+      logger.warn("  " + one);
+    }
+  }
+}
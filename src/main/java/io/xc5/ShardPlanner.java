@@ -0,0 +1,139 @@
+package io.xc5;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/***
+ * Splits the modules of a reactor into balanced shards, so several build agents
+ * can each run one shard. The partition only depends on the module keys and
+ * their costs, every agent computes the same one.
+ * Modules are taken from the most to the least costly, each going to the least
+ * loaded shard (longest processing time first), ties are broken by module key
+ * and by shard number.
+ */
+public class ShardPlanner {
+
+  /* Name of the manifest each shard writes into its working path */
+  static final String MANIFEST_NAME = "xvsa-shard.properties";
+
+  /* Name of the module costs written by the merge goal, to balance the next runs */
+  static final String COSTS_NAME = "xvsa-shard-costs.properties";
+
+  /*** One shard out of several, numbered from 1 ***/
+  public static class Shard {
+    private final int index;
+    private final int count;
+
+    public Shard(int index, int count) {
+      this.index = index;
+      this.count = count;
+    }
+
+    /***
+     * @param spec shard as "i/N", with 1 &lt;= i &lt;= N
+     * @return the shard
+     * @throws MojoExecutionException if the value cannot be parsed
+     */
+    public static Shard parse(String spec) throws MojoExecutionException {
+      String[] parts = spec.trim().split("/");
+      try {
+        if (parts.length == 2) {
+          int index = Integer.parseInt(parts[0].trim());
+          int count = Integer.parseInt(parts[1].trim());
+          if (count >= 1 && index >= 1 && index <= count) {
+            return new Shard(index, count);
+          }
+        }
+      } catch (NumberFormatException e) {
+        // Reported below
+      }
+      throw new MojoExecutionException("Invalid shard : " + spec + ", expecting i/N with 1 <= i <= N");
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public String toString() {
+      return index + "/" + count;
+    }
+  }
+
+  private ShardPlanner() {
+    // utility class with only static methods
+  }
+
+  /***
+   * Assign each module to a shard.
+   * @param costs cost of each module, by module key
+   * @param count number of shards
+   * @return the shard of each module, numbered from 1, by module key
+   */
+  public static Map<String, Integer> assign(Map<String, Long> costs, int count) {
+    List<Map.Entry<String, Long>> modules = new ArrayList<>(costs.entrySet());
+    modules.sort((a, b) -> {
+      int byCost = Long.compare(b.getValue(), a.getValue());
+      return byCost != 0 ? byCost : a.getKey().compareTo(b.getKey());
+    });
+    long[] loads = new long[count];
+    Map<String, Integer> shards = new TreeMap<>();
+    for (Map.Entry<String, Long> module : modules) {
+      int lightest = 0;
+      for (int i = 1; i < count; i++) {
+        if (loads[i] < loads[lightest]) {
+          lightest = i;
+        }
+      }
+      loads[lightest] += Math.max(0, module.getValue());
+      shards.put(module.getKey(), lightest + 1);
+    }
+    return shards;
+  }
+
+  /***
+   * Read module costs written by writeCosts.
+   * @return cost by module key, empty if the file does not exist
+   */
+  public static Map<String, Long> readCosts(File file) throws IOException {
+    Map<String, Long> costs = new TreeMap<>();
+    if (!file.exists()) {
+      return costs;
+    }
+    Properties properties = new Properties();
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    for (String key : properties.stringPropertyNames()) {
+      try {
+        costs.put(key, Long.parseLong(properties.getProperty(key).trim()));
+      } catch (NumberFormatException e) {
+        // Ignore the entry, the module falls back to the default cost
+      }
+    }
+    return costs;
+  }
+
+  /***
+   * Write module costs, in milliseconds, sorted by module key.
+   */
+  public static void writeCosts(File file, Map<String, Long> costs) throws IOException {
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      writer.write("# Cost of each module in ms, pass it with -Dxvsa.shard.costs to balance the shards\n");
+      for (Map.Entry<String, Long> cost : new TreeMap<>(costs).entrySet()) {
+        writer.write(escapeKey(cost.getKey()) + "=" + cost.getValue() + "\n");
+      }
+    }
+  }
+
+  private static String escapeKey(String key) {
+    return key.replace("\\", "\\\\").replace(":", "\\:").replace("=", "\\=").replace(" ", "\\ ");
+  }
+}
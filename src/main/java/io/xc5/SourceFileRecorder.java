@@ -1,29 +1,29 @@
 package io.xc5;
 
 import org.apache.maven.plugin.logging.Log;
-import org.json.JSONArray;
-import org.json.JSONException;
+import org.json.JSONObject;
 import org.json.JSONTokener;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
-
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
+/***
+ * Collects the source files of all modules into the srclist file.
+ * Files are appended to a sorted in-memory run, full runs are spilled to disk,
+ * and the srclist is written once, at the end of the scan, by merging the runs
+ * and dropping duplicates. Memory use is bounded by the run size, whatever the
+ * size of the repository.
+ */
 public class SourceFileRecorder {
 
+  static final int RUN_SIZE = 65536;
+
   static SourceFileRecorder singleton = null;
 
-  public static SourceFileRecorder i(String srcListFilePath, Log logger) {
+  public static synchronized SourceFileRecorder i(String srcListFilePath, Log logger) {
     if (singleton == null)
       singleton = new SourceFileRecorder(srcListFilePath, logger);
     return singleton;
@@ -32,118 +32,297 @@ public class SourceFileRecorder {
   String srcListFilePath = null;
   Log logger = null;
 
+  /* Current run, sorted and without duplicates */
+  private final TreeSet<String> run = new TreeSet<>();
+  /* Runs spilled to disk, one JSON string per line, sorted */
+  private final List<File> spilledRuns = new ArrayList<>();
+  private File runDir = null;
+  private boolean started = false;
+  /* Read the existing srclist when starting */
+  private boolean takeOver = true;
+
+  private SourceListWriter.Format format = SourceListWriter.Format.JSON;
+  private boolean gzip = false;
+  private File projectRoot = null;
+
   public SourceFileRecorder(String pSrcListFilePath, Log pLogger) {
     srcListFilePath = pSrcListFilePath;
     logger = pLogger;
   }
 
-  void preRunGatherSourceList() throws XvsaPluginException {
-    if (srcListFilePath == null) return;
-    if (new File(srcListFilePath).getAbsoluteFile().exists()) {
-      // Save the file content to a list, and remove it.
-      logger.info("Before mapfej, save preexist source list");
-      saveExistingListFile(new File(srcListFilePath).getAbsoluteFile());
-    }
-    if (!new File(srcListFilePath).getAbsoluteFile().getParentFile().canWrite()) {
-      throw new XvsaPluginException("Cannot write to the source_files json: " + srcListFilePath);
-    }
+  /***
+   * Choose the layout of the srclist file.
+   * @param format JSON array or compact format
+   * @param gzip compress the srclist file
+   * @param projectRoot the compact format stores the paths relative to it
+   */
+  synchronized void setOutput(SourceListWriter.Format format, boolean gzip, File projectRoot) {
+    this.format = format;
+    this.gzip = gzip;
+    this.projectRoot = projectRoot;
   }
 
-  void postRunCollectSourceList() throws XvsaPluginException {
-    if (srcListFilePath != null) {
-      if (new File(srcListFilePath).getAbsoluteFile().exists()) {
-        logger.info("After mapfej, before saving generated sources list stack size = "  + existingFiles.size());
-        saveExistingListFile(new File(srcListFilePath).getAbsoluteFile());
-      } else {
-        logger.warn("After generation, the source list file does not exist.");
-      }
-      logger.info("Recovering generated sources list, stack size = " + existingFiles.size());
-      recoverPreviousListFile(new File(srcListFilePath).getAbsoluteFile());
+  /***
+   * Merge the source list written by one front end run into the srclist.
+   * Modules may be processed concurrently, the list is read as a stream.
+   * @param moduleListFile source list written by the front end for one module
+   * @throws XvsaPluginException
+   */
+  synchronized void mergeSourceList(File moduleListFile) throws XvsaPluginException {
+    start();
+    if (moduleListFile.exists()) {
+      // The module list is kept, an unchanged module merges it again on the next run
+      readListFile(moduleListFile.getAbsoluteFile());
+    } else {
+      logger.warn("After generation, the module source list file does not exist : " + moduleListFile.getPath());
     }
   }
 
-  List<JSONArray> existingFiles = new LinkedList<>();
+  /***
+   * Start a new srclist, its previous content is dropped when it is written.
+   * @throws XvsaPluginException
+   */
+  synchronized void restart() throws XvsaPluginException {
+    takeOver = false;
+    start();
+  }
 
-  void recoverPreviousListFile(File absoluteFile) throws XvsaPluginException {
-    try {
-      // Remove duplicates.
-      logger.info("Iterating over " + existingFiles.size() + " source code groups(jsarrays)");
-      Set<String> totalSet = new HashSet<>();
-      for (JSONArray i : existingFiles){
-        for (Object obj : i){
-          if (obj instanceof String) {
-            totalSet.add((String) obj);
-          }
-        }
-      }
-      // Transform into JSONArray
-      JSONArray totalList = new JSONArray();
-      for (String one : totalSet) {
-        totalList.put(one);
-      }
-      // Clear the list
-      existingFiles.clear();
-      logger.info("Found a total number of " + totalList.length() + " files");
-      // Save back to file
-      FileWriter fileWriter = new FileWriter(absoluteFile);
-      fileWriter.write(totalList.toString());
-      fileWriter.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-      throw new XvsaPluginException("Cannot save back source files list file: " + absoluteFile.getPath());
-    }
+  /***
+   * Add the source files found under the folders into the srclist.
+   * @param allSrcDirs source folders
+   * @param fileIndex file system index providing the content of the folders
+   * @throws XvsaPluginException
+   */
+  synchronized void addSourceFolders(String[] allSrcDirs, ReactorFileIndex fileIndex) throws XvsaPluginException {
+    start();
+    addFilesInFolder(allSrcDirs, fileIndex);
   }
 
-  void saveExistingListFile(File absoluteFile) throws XvsaPluginException{
-    if (!absoluteFile.exists() || !absoluteFile.canRead()) {
-      throw new XvsaPluginException("Cannot read srclist file : " + absoluteFile.getPath());
+  /***
+   * Write the srclist file, merging all runs, and forget everything recorded.
+   * Does nothing if nothing was recorded.
+   * @throws XvsaPluginException
+   */
+  synchronized void finish() throws XvsaPluginException {
+    if (!started) {
+      return;
     }
+    File srcListFile = new File(srcListFilePath).getAbsoluteFile();
+    File tmpFile = new File(srcListFile.getPath() + ".tmp");
     try {
-      FileReader reader = new FileReader(absoluteFile);
-      JSONTokener tokener = new JSONTokener(reader);
-      JSONArray sourceList = new JSONArray(tokener);
-      existingFiles.add(sourceList);
-      logger.info("Added one existing source list json to list, file count = " + sourceList.length() +
-              ", stack size = " + existingFiles.size());
-      reader.close();
-      if (!absoluteFile.delete()) {
-        throw new XvsaPluginException("Cannot delete srclist file : " + absoluteFile.getPath());
+      SourceListWriter writer = new SourceListWriter(tmpFile, format, gzip, projectRoot);
+      try {
+        if (spilledRuns.isEmpty()) {
+          writeList(run.iterator(), writer);
+        } else {
+          spill();
+          mergeRuns(writer);
+        }
+      } finally {
+        writer.close();
       }
-    } catch (JSONException e) {
-      logger.warn("Previous json file is empty or not valid JSON format, skipping loading");
+      Files.move(tmpFile.toPath(), srcListFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.info("Found a total number of " + writer.getCount() + " files, written as " + format
+        + (gzip ? " (gzip)" : ""));
     } catch (IOException e) {
       e.printStackTrace();
-      throw new XvsaPluginException("Cannot read file into JSONArray : " + absoluteFile.getPath());
+      // Do not leave a partial list behind, the next run writes it again
+      if (tmpFile.exists() && !tmpFile.delete()) {
+        logger.warn("Cannot delete partial source files list file : " + tmpFile.getPath());
+      }
+      throw new XvsaPluginException("Cannot save back source files list file: " + srcListFile.getPath());
+    } finally {
+      reset();
+      synchronized (SourceFileRecorder.class) {
+        if (singleton == this) {
+          singleton = null;
+        }
+      }
     }
   }
 
   public String getJfeOption() {
-    return "-srcPathOutput," + new File(srcListFilePath).getAbsoluteFile();
+    return getJfeOption(new File(srcListFilePath));
+  }
+
+  public String getJfeOption(File outputFile) {
+    return "-srcPathOutput," + outputFile.getAbsoluteFile();
   }
 
-  public void addFilesInFolder(String[] allSrcDirs) {
-    JSONArray totalList = new JSONArray();
+  public void addFilesInFolder(String[] allSrcDirs, ReactorFileIndex fileIndex) throws XvsaPluginException {
     logger.info("Found " + allSrcDirs.length + " folders to iterate through ");
     for (String folder: allSrcDirs) {
-      if (!Files.isDirectory(Paths.get(folder))) {
+      if (!fileIndex.isDirectory(new File(folder))) {
         logger.warn("Skipping non-folder source dir: " + folder);
         continue;
       }
       logger.info("Searching in folder: " + folder);
+      List<String> files = fileIndex.sourceTree(folder).getSourceFiles();
+      logger.info("Found " + files.size() + " files in this folder");
+      for (String file : files) {
+        add(file);
+      }
+    }
+  }
+
+  synchronized void add(String file) throws XvsaPluginException {
+    run.add(file);
+    if (run.size() >= RUN_SIZE) {
       try {
-        Set<String> files = Files.walk(Paths.get(folder))
-                .filter(Files::isRegularFile)
-                .map(Path::toAbsolutePath)
-                .map(Path::toString)
-                .filter(fileName -> fileName.endsWith(".java") || fileName.endsWith(".kt") || fileName.endsWith(".groovy"))
-                .collect(Collectors.toSet());
-        logger.info("Found " + files.size() + " files in this folder");
-        files.forEach(totalList::put);
+        spill();
       } catch (IOException e) {
         e.printStackTrace();
-        logger.warn("Met error during gathering source code files list, but continuing ... ");
+        throw new XvsaPluginException("Cannot spill source files list to : " + runDir);
       }
     }
-    this.existingFiles.add(totalList);
+  }
+
+  /***
+   * Check the srclist can be written, and take over its previous content.
+   */
+  private void start() throws XvsaPluginException {
+    if (started) {
+      return;
+    }
+    File srcListFile = new File(srcListFilePath).getAbsoluteFile();
+    if (!srcListFile.getParentFile().canWrite()) {
+      throw new XvsaPluginException("Cannot write to the source_files json: " + srcListFilePath);
+    }
+    started = true;
+    if (takeOver && srcListFile.exists()) {
+      logger.info("Before mapfej, merge preexist source list");
+      readListFile(srcListFile);
+    }
+  }
+
+  /***
+   * Read a source list element by element, without building it in memory.
+   */
+  void readListFile(File absoluteFile) throws XvsaPluginException {
+    if (!absoluteFile.canRead()) {
+      throw new XvsaPluginException("Cannot read srclist file : " + absoluteFile.getPath());
+    }
+    long count = 0;
+    try (SourceListReader reader = SourceListReader.open(absoluteFile)) {
+      for (String file = reader.next(); file != null; file = reader.next()) {
+        add(file);
+        count++;
+      }
+      logger.info("Added one existing source list, file count = " + count);
+    } catch (IllegalArgumentException e) {
+      logger.warn("Previous source list is empty or not valid, skipping loading : " + e.getMessage());
+    } catch (IOException e) {
+      e.printStackTrace();
+      throw new XvsaPluginException("Cannot read source list file : " + absoluteFile.getPath());
+    }
+  }
+
+  private void spill() throws IOException {
+    if (run.isEmpty()) {
+      return;
+    }
+    if (runDir == null) {
+      File srcListFile = new File(srcListFilePath).getAbsoluteFile();
+      runDir = Files.createTempDirectory(srcListFile.getParentFile().toPath(), srcListFile.getName() + ".runs").toFile();
+    }
+    File runFile = new File(runDir, "run-" + spilledRuns.size());
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(runFile), StandardCharsets.UTF_8))) {
+      for (String file : run) {
+        writer.write(JSONObject.quote(file));
+        writer.write('\n');
+      }
+    }
+    spilledRuns.add(runFile);
+    run.clear();
+  }
+
+  /*** One spilled run, read a line at a time ***/
+  private static class RunReader implements Closeable {
+    private final BufferedReader reader;
+    private String head;
+
+    RunReader(File file) throws IOException {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      advance();
+    }
+
+    void advance() throws IOException {
+      String line = reader.readLine();
+      head = line == null ? null : (String) new JSONTokener(line).nextValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private void mergeRuns(SourceListWriter writer) throws IOException {
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(Comparator.comparing((RunReader r) -> r.head));
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      for (File runFile : spilledRuns) {
+        RunReader reader = new RunReader(runFile);
+        readers.add(reader);
+        if (reader.head != null) {
+          queue.add(reader);
+        }
+      }
+      Iterator<String> merged = new Iterator<String>() {
+        @Override
+        public boolean hasNext() {
+          return !queue.isEmpty();
+        }
+
+        @Override
+        public String next() {
+          RunReader reader = queue.poll();
+          String head = reader.head;
+          try {
+            reader.advance();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          if (reader.head != null) {
+            queue.add(reader);
+          }
+          return head;
+        }
+      };
+      writeList(merged, writer);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  /***
+   * Write sorted strings, skipping repeated values.
+   */
+  private static void writeList(Iterator<String> sorted, SourceListWriter writer) throws IOException {
+    String last = null;
+    while (sorted.hasNext()) {
+      String file = sorted.next();
+      if (!file.equals(last)) {
+        writer.write(file);
+        last = file;
+      }
+    }
+  }
+
+  private void reset() {
+    run.clear();
+    for (File runFile : spilledRuns) {
+      runFile.delete();
+    }
+    spilledRuns.clear();
+    if (runDir != null) {
+      runDir.delete();
+      runDir = null;
+    }
+    started = false;
   }
 }
@@ -0,0 +1,106 @@
+package io.xc5;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Include and exclude globs selecting the source files under a source root.
+ * A glob containing a '/' is matched against the path relative to the root,
+ * any other glob against the file or directory name, so "node_modules"
+ * excludes such directories at any depth.
+ * Excluded directories are pruned, their content is never listed.
+ */
+public class SourceFilter {
+
+  static final String DEFAULT_INCLUDES = "*.java,*.kt,*.groovy";
+
+  static final SourceFilter DEFAULT = of(null, null);
+
+  private final String description;
+  private final List<PathMatcher> includes;
+  private final List<PathMatcher> includePaths;
+  private final List<PathMatcher> excludes;
+  private final List<PathMatcher> excludePaths;
+
+  private SourceFilter(String includeGlobs, String excludeGlobs) {
+    this.description = includeGlobs + "|" + excludeGlobs;
+    this.includes = new ArrayList<>();
+    this.includePaths = new ArrayList<>();
+    this.excludes = new ArrayList<>();
+    this.excludePaths = new ArrayList<>();
+    compile(includeGlobs, includes, includePaths);
+    compile(excludeGlobs, excludes, excludePaths);
+  }
+
+  /***
+   * @param includeGlobs comma separated globs of the source files, null or empty for the Java, Kotlin and Groovy sources
+   * @param excludeGlobs comma separated globs of the files and directories to skip, null or empty for none
+   * @return the filter
+   */
+  public static SourceFilter of(String includeGlobs, String excludeGlobs) {
+    if (includeGlobs == null || includeGlobs.trim().isEmpty()) {
+      includeGlobs = DEFAULT_INCLUDES;
+    }
+    if (excludeGlobs == null) {
+      excludeGlobs = "";
+    }
+    return new SourceFilter(includeGlobs, excludeGlobs);
+  }
+
+  /***
+   * @param relative path of the directory relative to the root being walked
+   * @return true if the directory and everything below it is skipped
+   */
+  public boolean isExcludedDirectory(Path relative) {
+    return matches(relative, excludes, excludePaths);
+  }
+
+  /***
+   * @param relative path of the file relative to the root being walked
+   * @return true if the file is a source file
+   */
+  public boolean isSourceFile(Path relative) {
+    return matches(relative, includes, includePaths) && !matches(relative, excludes, excludePaths);
+  }
+
+  /*** Same text for filters with the same globs ***/
+  @Override
+  public String toString() {
+    return description;
+  }
+
+  private static boolean matches(Path relative, List<PathMatcher> byName, List<PathMatcher> byPath) {
+    if (!byName.isEmpty()) {
+      Path name = relative.getFileName();
+      for (PathMatcher matcher : byName) {
+        if (name != null && matcher.matches(name)) {
+          return true;
+        }
+      }
+    }
+    for (PathMatcher matcher : byPath) {
+      if (matcher.matches(relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void compile(String globs, List<PathMatcher> byName, List<PathMatcher> byPath) {
+    for (String glob : globs.split(",")) {
+      glob = glob.trim();
+      if (glob.isEmpty()) {
+        continue;
+      }
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      if (glob.indexOf('/') >= 0) {
+        byPath.add(matcher);
+      } else {
+        byName.add(matcher);
+      }
+    }
+  }
+}
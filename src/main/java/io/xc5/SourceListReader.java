@@ -0,0 +1,184 @@
+package io.xc5;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/***
+ * Reads a srclist file one path at a time, whatever its format :
+ * the JSON array written by the front end and by default, or the compact
+ * format of SourceListWriter, either of them optionally gzip compressed.
+ * Paths are returned absolute, as they were recorded.
+ * <pre>
+ * try (SourceListReader reader = SourceListReader.open(file)) {
+ *   for (String path = reader.next(); path != null; path = reader.next()) {
+ *     ...
+ *   }
+ * }
+ * </pre>
+ */
+public class SourceListReader implements Closeable {
+
+  private final BufferedReader reader;
+  private final boolean compact;
+  private JSONTokener tokener;
+  private String rootPrefix;
+  private String previous = "";
+  private boolean started = false;
+  private boolean done = false;
+
+  private SourceListReader(BufferedReader reader, boolean compact) {
+    this.reader = reader;
+    this.compact = compact;
+  }
+
+  /***
+   * Open a srclist file, the format and the compression are detected from its content.
+   * @param file the srclist file
+   * @return the reader, to be closed
+   * @throws IOException if the file cannot be read
+   */
+  public static SourceListReader open(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+    try {
+      in.mark(2);
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if (first == 0x1f && second == 0x8b) {
+        in = new BufferedInputStream(new GZIPInputStream(in, 65536), 65536);
+      }
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 65536);
+      reader.mark(1);
+      boolean compact = reader.read() == '#';
+      reader.reset();
+      return new SourceListReader(reader, compact);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /***
+   * Read all paths of a srclist file into memory, for small lists.
+   */
+  public static List<String> readAll(File file) throws IOException {
+    List<String> paths = new ArrayList<>();
+    try (SourceListReader reader = open(file)) {
+      for (String path = reader.next(); path != null; path = reader.next()) {
+        paths.add(path);
+      }
+    }
+    return paths;
+  }
+
+  /***
+   * @return the next path, null at the end of the list
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the content is not a valid srclist
+   */
+  public String next() throws IOException {
+    if (done) {
+      return null;
+    }
+    try {
+      return compact ? nextCompact() : nextJson();
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Invalid srclist : " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private String nextJson() {
+    if (tokener == null) {
+      tokener = new JSONTokener(reader);
+    }
+    while (!done) {
+      char c = tokener.nextClean();
+      if (!started) {
+        if (c != '[') {
+          throw tokener.syntaxError("A JSONArray text must start with '['");
+        }
+        started = true;
+        if (tokener.nextClean() == ']') {
+          done = true;
+          break;
+        }
+        tokener.back();
+      } else if (c == ']') {
+        done = true;
+        break;
+      } else if (c != ',') {
+        throw tokener.syntaxError("Expected a ',' or ']'");
+      }
+      Object value = tokener.nextValue();
+      if (value instanceof String) {
+        return (String) value;
+      }
+    }
+    return null;
+  }
+
+  private String nextCompact() throws IOException {
+    if (!started) {
+      String header = reader.readLine();
+      String root = reader.readLine();
+      if (!SourceListWriter.COMPACT_HEADER.equals(header) || root == null || !root.startsWith(SourceListWriter.COMPACT_ROOT)) {
+        throw new IllegalArgumentException("Invalid srclist : missing compact srclist header");
+      }
+      root = unescape(root.substring(SourceListWriter.COMPACT_ROOT.length()));
+      rootPrefix = root.isEmpty() ? null : root + File.separator;
+      started = true;
+    }
+    String line = reader.readLine();
+    while (line != null && line.isEmpty()) {
+      line = reader.readLine();
+    }
+    if (line == null) {
+      done = true;
+      return null;
+    }
+    int colon = line.indexOf(':');
+    if (colon < 0) {
+      throw new IllegalArgumentException("Invalid srclist : malformed entry '" + line + "'");
+    }
+    int shared;
+    try {
+      shared = Integer.parseInt(line.substring(0, colon));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid srclist : malformed entry '" + line + "'", e);
+    }
+    if (shared > previous.length()) {
+      throw new IllegalArgumentException("Invalid srclist : malformed entry '" + line + "'");
+    }
+    String entry = previous.substring(0, shared) + unescape(line.substring(colon + 1));
+    previous = entry;
+    return rootPrefix != null && !new File(entry).isAbsolute() ? rootPrefix + entry : entry;
+  }
+
+  static String unescape(String text) {
+    if (text.indexOf('\\') < 0) {
+      return text;
+    }
+    StringBuilder out = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\' && i + 1 < text.length()) {
+        char escaped = text.charAt(++i);
+        out.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,151 @@
+package io.xc5;
+
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/***
+ * Writes a srclist file, either as the JSON array of absolute paths,
+ * or in the compact format read back by SourceListReader.
+ * <p>
+ * The compact format is line based, UTF-8 :
+ * <pre>
+ * #xvsa-srclist 1
+ * root /absolute/project/root
+ * 0:module-a/src/main/java/a/A.java
+ * 28:B.java
+ * </pre>
+ * Each entry line holds the number of characters shared with the previous
+ * entry, and the rest of the entry. Paths under the root are stored relative
+ * to it, other paths are stored as they are. Backslashes, carriage returns
+ * and line feeds in the text are escaped with a backslash.
+ * Sorted input gives the longest shared prefixes.
+ */
+public class SourceListWriter implements Closeable {
+
+  static final String COMPACT_HEADER = "#xvsa-srclist 1";
+
+  static final String COMPACT_ROOT = "root ";
+
+  /*** Layout of the srclist file ***/
+  public enum Format {
+    JSON, COMPACT;
+
+    /***
+     * @param name format name, case insensitive
+     * @return the format, null if unknown
+     */
+    public static Format of(String name) {
+      for (Format one : values()) {
+        if (one.name().equalsIgnoreCase(name.trim())) {
+          return one;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private final Writer writer;
+  private final Format format;
+  private final String rootPrefix;
+  private String previous = "";
+  private long count = 0;
+
+  /***
+   * @param file output file
+   * @param format output format
+   * @param gzip compress the output with gzip
+   * @param root paths under this directory are written relative to it in the compact format, may be null
+   */
+  public SourceListWriter(File file, Format format, boolean gzip, File root) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    if (gzip) {
+      out = new GZIPOutputStream(out, 65536);
+    }
+    this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+    this.format = format;
+    String rootPath = root == null ? "" : root.getAbsolutePath();
+    this.rootPrefix = rootPath.isEmpty() ? null : rootPath + File.separator;
+    if (format == Format.COMPACT) {
+      writer.write(COMPACT_HEADER);
+      writer.write('\n');
+      writer.write(COMPACT_ROOT);
+      writer.write(escape(rootPath));
+      writer.write('\n');
+    } else {
+      writer.write('[');
+    }
+  }
+
+  public void write(String path) throws IOException {
+    if (format == Format.COMPACT) {
+      String entry = rootPrefix != null && path.startsWith(rootPrefix) ? path.substring(rootPrefix.length()) : path;
+      int shared = sharedPrefix(previous, entry);
+      writer.write(Integer.toString(shared));
+      writer.write(':');
+      writer.write(escape(entry.substring(shared)));
+      writer.write('\n');
+      previous = entry;
+    } else {
+      if (count > 0) {
+        writer.write(',');
+      }
+      writer.write(JSONObject.quote(path));
+    }
+    count++;
+  }
+
+  /*** Number of paths written ***/
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (format == Format.JSON) {
+      writer.write(']');
+    }
+    writer.close();
+  }
+
+  private static int sharedPrefix(String a, String b) {
+    int max = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < max && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    // Do not split a surrogate pair
+    if (i > 0 && i < b.length() && Character.isHighSurrogate(b.charAt(i - 1))) {
+      i--;
+    }
+    return i;
+  }
+
+  static String escape(String text) {
+    if (text.indexOf('\\') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+      return text;
+    }
+    StringBuilder out = new StringBuilder(text.length() + 8);
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\') {
+        out.append("\\\\");
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else if (c == '\r') {
+        out.append("\\r");
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+}
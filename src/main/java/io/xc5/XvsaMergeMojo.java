@@ -0,0 +1,315 @@
+package io.xc5;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/*** Goal which merges the working directories of the shards of a sharded gather .***/
+
+@Mojo(name = "merge", aggregator = true, requiresDirectInvocation = true)
+public class XvsaMergeMojo
+        extends AbstractMojo {
+
+  private static final String REACTOR_METRICS = XvsaPluginMojo.AGGREGATE_NAME + ".metrics";
+
+  private static final String LIBRARY_LIST_SUFFIX = ".lib.output.list";
+
+  /* Maven Project */
+  @Parameter(defaultValue = "${project}", required = true, readonly = true)
+  private MavenProject project;
+
+  /* Working directories of the shards, each written by a gather run with xvsa.shard and xvsa.result */
+  @Parameter(property = "xvsa.merge.inputs", required = true, readonly = true)
+  private String[] inputs = {};
+
+  @Parameter(property = "xvsa.result", required = true, readonly = true)
+  private String resultDir;
+
+  @Parameter(property = "xvsa.srclist", readonly = true)
+  private String srcListFilePath;
+
+  @Parameter(property = "xvsa.srclist.format", readonly = true, defaultValue = "json")
+  private String srcListFormat = "json";
+
+  @Parameter(property = "xvsa.srclist.gzip", readonly = true, defaultValue = "false")
+  private Boolean srcListGzip = false;
+
+  @Parameter(property = "xvsa.ignore", readonly = true, required = false)
+  private Boolean ignoreError = false;
+
+  /* Logger */
+  private Log logger;
+
+  /*** Check the shards are complete, then merge their outputs into the result directory ***/
+  public void execute() throws MojoExecutionException {
+    logger = getLog();
+    List<File> shardDirs = new ArrayList<>();
+    for (String input : inputs) {
+      if (input != null && !input.trim().isEmpty()) {
+        shardDirs.add(new File(input.trim()).getAbsoluteFile());
+      }
+    }
+    if (shardDirs.isEmpty()) {
+      throw new MojoExecutionException("No shard directory given, set xvsa.merge.inputs");
+    }
+    File outputDir = new File(resultDir).getAbsoluteFile();
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new XvsaPluginException("Cannot create result directory : " + outputDir.getPath());
+    }
+    SourceListWriter.Format format = null;
+    if (srcListFilePath != null) {
+      format = SourceListWriter.Format.of(srcListFormat);
+      if (format == null) {
+        throw new MojoExecutionException("Unknown srclist format : " + srcListFormat + ", expecting json or compact");
+      }
+    }
+    Map<File, Path> agentDirs = checkManifests(shardDirs);
+
+    String srcListName = srcListFilePath == null ? null : new File(srcListFilePath).getName();
+    long copied = 0;
+    for (File shardDir : shardDirs) {
+      if (shardDir.equals(outputDir)) {
+        continue;
+      }
+      try {
+        copied += copyOutputs(shardDir.toPath(), agentDirs.get(shardDir), outputDir.toPath(), srcListName);
+      } catch (IOException e) {
+        throw new XvsaPluginException("Cannot copy shard outputs from : " + shardDir.getPath(), e);
+      }
+    }
+    logger.info("Merged " + shardDirs.size() + " shards into " + outputDir.getPath() + ", " + copied + " files copied");
+
+    if (srcListFilePath != null) {
+      mergeSourceLists(shardDirs, srcListName, format);
+    }
+    mergeMetrics(shardDirs, outputDir);
+  }
+
+  /***
+   * Check every shard comes from the same partition, and that no shard is missing or repeated.
+   * @return the result directory each shard was written into on its agent, by shard directory
+   */
+  private Map<File, Path> checkManifests(List<File> shardDirs) throws MojoExecutionException {
+    Map<File, Path> agentDirs = new HashMap<>();
+    Map<Integer, File> byIndex = new TreeMap<>();
+    Map<String, File> byModule = new HashMap<>();
+    int count = -1;
+    long total = -1;
+    for (File shardDir : shardDirs) {
+      File manifestFile = new File(shardDir, ShardPlanner.MANIFEST_NAME);
+      Properties manifest = new Properties();
+      try (Reader reader = new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8)) {
+        manifest.load(reader);
+      } catch (IOException e) {
+        throw new XvsaPluginException("Cannot read shard manifest : " + manifestFile.getPath(), e);
+      }
+      ShardPlanner.Shard shard = ShardPlanner.Shard.parse(manifest.getProperty("shard", ""));
+      agentDirs.put(shardDir, Paths.get(manifest.getProperty("dir", shardDir.getPath())));
+      if (count >= 0 && shard.getCount() != count) {
+        throw new MojoExecutionException("Shard " + shard + " of " + shardDir.getPath()
+          + " does not belong to the same partition as the other shards, of " + count);
+      }
+      count = shard.getCount();
+      File previous = byIndex.put(shard.getIndex(), shardDir);
+      if (previous != null) {
+        throw new MojoExecutionException("Shard " + shard + " found twice : " + previous.getPath() + " and " + shardDir.getPath());
+      }
+      long shardTotal = Long.parseLong(manifest.getProperty("total", "-1"));
+      if (total >= 0 && shardTotal != total) {
+        throw new MojoExecutionException("Shard " + shard + " of " + shardDir.getPath() + " was planned over "
+          + shardTotal + " modules, other shards over " + total);
+      }
+      total = shardTotal;
+      for (String module : manifest.getProperty("modules", "").split(String.valueOf(MavenProjectConverter.SEPARATOR))) {
+        if (module.isEmpty()) {
+          continue;
+        }
+        previous = byModule.put(module, shardDir);
+        if (previous != null) {
+          throw new MojoExecutionException("Module " + module + " was processed by two shards : "
+            + previous.getPath() + " and " + shardDir.getPath());
+        }
+      }
+    }
+    List<Integer> missing = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      if (!byIndex.containsKey(i)) {
+        missing.add(i);
+      }
+    }
+    if (!missing.isEmpty()) {
+      String message = "Missing shards " + missing + " of " + count;
+      if (!ignoreError) {
+        throw new MojoExecutionException(message);
+      }
+      logger.warn(message + ", merging the others");
+    } else if (total >= 0 && byModule.size() != total) {
+      throw new MojoExecutionException("The shards processed " + byModule.size() + " modules, expecting " + total);
+    }
+    return agentDirs;
+  }
+
+  /***
+   * Copy the outputs of one shard. A file already present in the output directory is kept,
+   * the same library objects are generated by several shards. The library output lists
+   * are rewritten to point into the output directory.
+   * @param agentDir the result directory of the shard on its agent
+   * @return the number of files copied
+   */
+  private long copyOutputs(Path shardDir, Path agentDir, Path outputDir, String srcListName) throws IOException {
+    long[] copied = {0};
+    Files.walkFileTree(shardDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (dir.equals(outputDir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        Files.createDirectories(outputDir.resolve(shardDir.relativize(dir).toString()));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String name = file.getFileName().toString();
+        if (isMergedSeparately(name, srcListName)) {
+          return FileVisitResult.CONTINUE;
+        }
+        Path target = outputDir.resolve(shardDir.relativize(file).toString());
+        if (Files.exists(target)) {
+          logger.debug("Keeping the existing " + target);
+          return FileVisitResult.CONTINUE;
+        }
+        if (name.endsWith(LIBRARY_LIST_SUFFIX)) {
+          copyLibraryList(file, target, agentDir, shardDir, outputDir);
+        } else {
+          Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        copied[0]++;
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return copied[0];
+  }
+
+  /***
+   * Copy a library output list, the objects written under the result directory of the
+   * agent, or under the shard directory, are moved to the output directory.
+   */
+  private static void copyLibraryList(Path file, Path target, Path agentDir, Path shardDir, Path outputDir)
+    throws IOException {
+    List<String> libraries = new ArrayList<>();
+    for (String library : new String(Files.readAllBytes(file), StandardCharsets.UTF_8).split("\n")) {
+      String trimmed = library.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      Path path = Paths.get(trimmed).normalize();
+      if (agentDir != null && path.startsWith(agentDir)) {
+        path = outputDir.resolve(agentDir.relativize(path).toString());
+      } else if (path.startsWith(shardDir)) {
+        path = outputDir.resolve(shardDir.relativize(path).toString());
+      }
+      libraries.add(path.toString());
+    }
+    // Written as the gather goal writes it, one path per line, no trailing separator
+    Files.write(target, String.join("\n", libraries).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static boolean isMergedSeparately(String name, String srcListName) {
+    return name.endsWith(".lock") || name.endsWith(".tmp")
+      || name.equals(ShardPlanner.MANIFEST_NAME) || name.equals(ShardPlanner.COSTS_NAME)
+      || name.startsWith(REACTOR_METRICS + ".")
+      || name.equals(srcListName)
+      || (srcListName != null && name.equals(srcListName + DirectoryStamps.SUFFIX));
+  }
+
+  /***
+   * Merge the srclist of each shard, found in its directory under the name of xvsa.srclist.
+   * The merged srclist only holds the lists of the shards, a srclist already found at
+   * xvsa.srclist is replaced, unless it is the list of one of the shards.
+   */
+  private void mergeSourceLists(List<File> shardDirs, String srcListName, SourceListWriter.Format format)
+    throws MojoExecutionException {
+    SourceFileRecorder recorder = new SourceFileRecorder(srcListFilePath, logger);
+    recorder.setOutput(format, srcListGzip, project.getBasedir());
+    recorder.restart();
+    for (File shardDir : shardDirs) {
+      File shardList = new File(shardDir, srcListName);
+      if (!shardList.isFile()) {
+        logger.warn("No srclist " + srcListName + " in shard directory " + shardDir.getPath()
+          + ", the source files of its modules are missing from the merged srclist");
+        continue;
+      }
+      recorder.mergeSourceList(shardList);
+    }
+    recorder.finish();
+  }
+
+  /***
+   * Cost of a module in ns, the wall clock time of its stages. The phases are nested,
+   * so their sum counts the same time several times.
+   */
+  private static long moduleCost(Map<String, Long> phases) {
+    Long total = phases.get(ScanMetrics.TOTAL);
+    if (total != null) {
+      return total;
+    }
+    // Written before the total was timed, sum the phases not nested in another one
+    long nanos = 0;
+    for (Map.Entry<String, Long> phase : phases.entrySet()) {
+      if (!phase.getKey().equals("srclist.addSourceFolders")) {
+        nanos += phase.getValue();
+      }
+    }
+    return nanos;
+  }
+
+  /***
+   * Sum the reactor metrics of the shards, and write the cost of each module,
+   * to balance the shards of the next runs with xvsa.shard.costs.
+   */
+  private void mergeMetrics(List<File> shardDirs, File outputDir) {
+    ScanMetrics reactorMetrics = new ScanMetrics();
+    Map<String, Long> costs = new TreeMap<>();
+    for (File shardDir : shardDirs) {
+      File[] files = shardDir.listFiles((dir, name) -> name.endsWith(".metrics.json"));
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        try {
+          if (file.getName().equals(REACTOR_METRICS + ".json")) {
+            reactorMetrics.read(file);
+            continue;
+          }
+          ScanMetrics moduleMetrics = new ScanMetrics();
+          String module = moduleMetrics.read(file);
+          costs.merge(module, moduleCost(moduleMetrics.module(module).getPhaseNanos()) / 1000000L, Long::sum);
+        } catch (IOException e) {
+          logger.warn("Skipping metrics : " + e.getMessage());
+        }
+      }
+    }
+    reactorMetrics.write(ScanMetrics.REACTOR, outputDir.getPath(), XvsaPluginMojo.AGGREGATE_NAME, logger);
+
+    if (costs.isEmpty()) {
+      return;
+    }
+    File costsFile = new File(outputDir, ShardPlanner.COSTS_NAME);
+    try {
+      ShardPlanner.writeCosts(costsFile, costs);
+      logger.info("Module costs written to " + costsFile.getPath() + ", pass it with -Dxvsa.shard.costs");
+    } catch (IOException e) {
+      logger.warn("Cannot write module costs : " + costsFile.getPath());
+    }
+  }
+}
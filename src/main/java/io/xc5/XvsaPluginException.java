@@ -3,6 +3,8 @@ package io.xc5;
 import org.apache.maven.plugin.MojoExecutionException;
 
 public class XvsaPluginException extends MojoExecutionException {
+  private static final long serialVersionUID = 1L;
+
   public XvsaPluginException(Object source, String shortMessage, String longMessage) {
     super(source, shortMessage, longMessage);
   }
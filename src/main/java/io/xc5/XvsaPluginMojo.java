@@ -7,17 +7,14 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.*;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
-import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
-
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 import static io.xc5.MavenProjectConverter.SEPARATOR;
@@ -32,6 +29,11 @@ public class XvsaPluginMojo
 
   private static final String XVSA_OUTPUT_DIR = "xvsa-out";
 
+  private static final String XVSA_LOG_DIR = "xvsa-logs";
+
+  /* Output and fingerprint name of the reactor wide xvsa run */
+  static final String AGGREGATE_NAME = "xvsa-reactor";
+
   /* Session for Maven */
   @Parameter(defaultValue = "${session}", required = true, readonly = true)
   private MavenSession session;
@@ -71,6 +73,16 @@ public class XvsaPluginMojo
   @Parameter(property = "xvsa.srclist", readonly = true)
   private String srcListFilePath;
 
+  @Parameter(property = "xvsa.srclist.format", readonly = true, defaultValue = "json")
+  private String srcListFormat = "json";
+
+  @Parameter(property = "xvsa.srclist.gzip", readonly = true, defaultValue = "false")
+  private Boolean srcListGzip = false;
+
+  /* Keep the listing of each source directory beside the srclist, and only list the changed ones again */
+  @Parameter(property = "xvsa.srclist.stamps", readonly = true, defaultValue = "true")
+  private Boolean srcListStamps = true;
+
   @Parameter(property = "xvsa.json", readonly = true)
   private Boolean json = false;
 
@@ -89,69 +101,437 @@ public class XvsaPluginMojo
   @Parameter(property = "xvsa.jfe.skip", readonly = true, required = false)
   private Boolean skipJfe = false;
 
+  @Parameter(property = "xvsa.threads", readonly = true, defaultValue = "1")
+  private String threads = "1";
+
+  @Parameter(property = "xvsa.vsa.threads", readonly = true, defaultValue = "1")
+  private String vsaThreads = "1";
+
+  @Parameter(property = "xvsa.vsa.aggregate", readonly = true, defaultValue = "false")
+  private Boolean aggregateVsa = false;
+
+  /* Changed files, comma separated or @file, only their modules and the modules depending on them are scanned */
+  @Parameter(property = "xvsa.changed", readonly = true)
+  private String changed;
+
+  /* Git revision, the files changed since the merge base with it are added to the changed files */
+  @Parameter(property = "xvsa.since", readonly = true)
+  private String since;
+
+  @Parameter(property = "xvsa.shard", readonly = true)
+  private String shard;
+
+  @Parameter(property = "xvsa.shard.costs", readonly = true)
+  private String shardCosts;
+
+  @Parameter(property = "xvsa.lib.threads", readonly = true, defaultValue = "1")
+  private String libThreads = "1";
+
+  @Parameter(property = "xvsa.lib.batch", readonly = true, defaultValue = "1")
+  private Integer libBatch = 1;
+
+  @Parameter(property = "xvsa.cache", readonly = true, defaultValue = "true")
+  private Boolean libCache = true;
+
+  @Parameter(property = "xvsa.cache.dir", readonly = true)
+  private String libCacheDir;
+
+  @Parameter(property = "xvsa.cache.size", readonly = true, defaultValue = "2048")
+  private Long libCacheSizeMb = 2048L;
+
+  @Parameter(property = "xvsa.incremental", readonly = true, defaultValue = "false")
+  private Boolean incremental = false;
+
+  @Parameter(property = "xvsa.incremental.vsa", readonly = true, defaultValue = "false")
+  private Boolean incrementalVsa = false;
+
+  @Parameter(property = "xvsa.log.tail", readonly = true, defaultValue = "50")
+  private Integer logTailLines = 50;
+
+  @Parameter(property = "xvsa.timeout.jfe", readonly = true, defaultValue = "0")
+  private Long jfeTimeout = 0L;
+
+  @Parameter(property = "xvsa.timeout.lib", readonly = true, defaultValue = "0")
+  private Long libTimeout = 0L;
+
+  @Parameter(property = "xvsa.timeout.xvsa", readonly = true, defaultValue = "0")
+  private Long xvsaTimeout = 0L;
+
+  @Parameter(property = "xvsa.metrics", readonly = true, defaultValue = "true")
+  private Boolean writeMetrics = true;
+
+  @Parameter(property = "xvsa.src.includes", readonly = true)
+  private String srcIncludes;
+
+  @Parameter(property = "xvsa.src.excludes", readonly = true)
+  private String srcExcludes;
+
+  /* Phase timings and counters, written per module at the end */
+  private final ScanMetrics metrics = new ScanMetrics();
+
+  /* Timed out invocations and other events reported at the end */
+  private final ScanSummary scanSummary = new ScanSummary();
+
+  /* Runs the tools, their output goes to log files */
+  private CommandRunner commandRunner;
+
+  /* Workers for the library V-Table generation, shared by all modules */
+  private ExecutorService libraryExecutor;
+
+  /* File system index shared by all modules */
+  private ReactorFileIndex fileIndex;
+
+  /* Source files of the srclist, and its layout, null without srclist */
+  private SourceFilter sourceFilter;
+  private SourceListWriter.Format srcListOutput;
+
+  /* Directory stamps of the srclist being recorded, null if disabled */
+  private DirectoryStamps stamps;
+
+  /* Module lookup and module tree of the reactor, built by configure */
+  private ReactorIndex reactorIndex;
+
+  /* Class path entries of all modules, built once per build */
+  private LibraryRegistry libraryRegistry;
+
+  /* Persistent library V-Table cache, null if disabled */
+  private LibraryCache libraryCache;
+
   /* Logger */
   private Log logger;
 
   /*** Main logics are here   * @throws MojoExecutionException   */
   public void execute() throws MojoExecutionException {
-    logger = getLog();
+    start();
+    Map<MavenProject, ModuleDescriptor> propertyForEachModules = null;
     try {
-      Map<MavenProject, Map<String, String>> propertyForEachModules =
-        new MavenProjectConverter(getLog(), new Properties(), session).configure(session);
-      processAllModules(propertyForEachModules, project, "");
+      propertyForEachModules = configureReactor();
+      startSourceList();
+      try {
+        processAllModules(propertyForEachModules, project);
+      } finally {
+        // The srclist is written once, with what was recorded up to a failure too
+        finishSourceList();
+      }
     } catch (MojoExecutionException e) {
       e.printStackTrace();
       throw e;
     } catch (IOException e) {
       e.printStackTrace();
       throw new MojoExecutionException("An IO Exception occurred");
+    } finally {
+      stop(propertyForEachModules);
     }
   }
 
-  private Path processAllModules( Map<MavenProject, Map<String, String>> propsByModule,
-                                             MavenProject current, String prefix)
-    throws MojoExecutionException, IOException {
-    Path topLevelDir = current.getBasedir().toPath().toAbsolutePath();
-    Map<String, String> currentProps = propsByModule.get(current);
-    if (currentProps == null) {
-      throw new MojoExecutionException("Cannot determine project structure");
+  /***
+   * Create the tools shared by all modules, library workers, file index and caches.
+   */
+  void start() throws MojoExecutionException {
+    logger = getLog();
+    commandRunner = new CommandRunner(logger, logTailLines);
+    sourceFilter = SourceFilter.of(srcIncludes, srcExcludes);
+    fileIndex = new ReactorFileIndex(sourceFilter);
+    fileIndex.setDigestSources(incremental);
+    if (srcListFilePath != null) {
+      srcListOutput = SourceListWriter.Format.of(srcListFormat);
+      if (srcListOutput == null) {
+        throw new MojoExecutionException("Unknown srclist format : " + srcListFormat + ", expecting json or compact");
+      }
     }
-    logger.debug("Handle current project : " + current);
-    logger.debug("Handle baseDir : " + current.getBasedir());
-    logger.debug("Handle packaging : " + current.getPackaging());
-    logger.debug("Properties : ");
-    currentProps.forEach((k, v) -> logger.debug("Key : " + k + ", value : " + v));
-    if (!needToRun(currentProps)) {
-      logger.debug("Ignore this module, no classes found.");
-      return topLevelDir;
+    libraryExecutor = Executors.newFixedThreadPool(ModuleScheduler.parseThreads(libThreads),
+      ModuleScheduler.namedThreadFactory("xvsa-lib"));
+    if (libGeneration && libCache) {
+      File cacheDir = libCacheDir != null ? new File(libCacheDir) : LibraryCache.defaultCacheDir();
+      libraryCache = new LibraryCache(cacheDir, libCacheSizeMb, xvsaInstallDir, logger);
+      logger.info("Using library cache under : " + cacheDir.getAbsolutePath());
     }
+  }
 
-    // allow running without jfe
-    dumpProjectInfoToProperties(currentProps);
-    if (skipJfe) {
-      // Dump source code info
-      logger.info("Dump properties completed, not running jfe.");
+  /***
+   * Compute the properties of every module of the reactor, and register their class paths.
+   * @return properties of each module
+   */
+  @SuppressWarnings("try")
+  Map<MavenProject, ModuleDescriptor> configureReactor() throws MojoExecutionException {
+    Map<MavenProject, ModuleDescriptor> propertyForEachModules;
+    try (ScanMetrics.Timer ignored = metrics.time(ScanMetrics.REACTOR, "configure")) {
+      MavenProjectConverter converter = new MavenProjectConverter(getLog(), new Properties(), session, fileIndex);
+      propertyForEachModules = converter.configure(session);
+      reactorIndex = converter.getReactorIndex();
+    }
+    registerLibraries(propertyForEachModules);
+    return propertyForEachModules;
+  }
+
+  /***
+   * Build the library registry, the V-Table claims it holds are only valid for one build.
+   */
+  @SuppressWarnings("try")
+  void registerLibraries(Map<MavenProject, ModuleDescriptor> propsByModule) {
+    try (ScanMetrics.Timer ignored = metrics.time(ScanMetrics.REACTOR, "libraries.register")) {
+      libraryRegistry = new LibraryRegistry(libJarFilter, excludeAllLibrariesByDefault, logger);
+      for (Map.Entry<MavenProject, ModuleDescriptor> module : propsByModule.entrySet()) {
+        libraryRegistry.register(module.getValue().getModuleKey(), module.getKey(), module.getValue().getLibraries());
+      }
+    }
+    metrics.count(ScanMetrics.REACTOR, "libraries.unique", libraryRegistry.size());
+    metrics.count(ScanMetrics.REACTOR, "libraries.references", libraryRegistry.getReferenceCount());
+  }
+
+  /***
+   * Forget what was read from the file system and the library claims, before processing
+   * modules again in the same build.
+   */
+  void refresh(Map<MavenProject, ModuleDescriptor> propsByModule) {
+    fileIndex.clear();
+    registerLibraries(propsByModule);
+  }
+
+  /***
+   * Prepare the srclist for the modules about to be processed, and load the directory stamps.
+   */
+  void startSourceList() {
+    if (srcListFilePath == null) {
+      return;
+    }
+    SourceFileRecorder.i(srcListFilePath, logger).setOutput(srcListOutput, srcListGzip, project.getBasedir());
+    if (srcListStamps && incremental) {
+      logger.debug("Directory stamps not used, the source roots are walked completely for xvsa.incremental");
+    } else if (srcListStamps) {
+      stamps = DirectoryStamps.load(new File(srcListFilePath + DirectoryStamps.SUFFIX).getAbsoluteFile(), sourceFilter, logger);
+      fileIndex.setStamps(stamps);
+    }
+  }
+
+  /***
+   * Write the srclist with what was recorded since startSourceList, and save the directory stamps.
+   */
+  @SuppressWarnings("try")
+  void finishSourceList() throws XvsaPluginException {
+    if (srcListFilePath == null) {
+      return;
+    }
+    try (ScanMetrics.Timer ignored = metrics.time(ScanMetrics.REACTOR, "srclist.finish")) {
+      SourceFileRecorder.i(srcListFilePath, logger).finish();
+    }
+    if (stamps != null) {
+      try (ScanMetrics.Timer ignored = metrics.time(ScanMetrics.REACTOR, "srclist.stamps")) {
+        stamps.save(logger);
+      }
+      metrics.count(ScanMetrics.REACTOR, "stamps.hits", stamps.getHits());
+      metrics.count(ScanMetrics.REACTOR, "stamps.misses", stamps.getMisses());
+      stamps = null;
+      fileIndex.setStamps(null);
+    }
+  }
+
+  /***
+   * Stop the workers, report the summary and write the metrics.
+   * @param propsByModule properties of each module, null if the configuration failed
+   */
+  void stop(Map<MavenProject, ModuleDescriptor> propsByModule) {
+    libraryExecutor.shutdownNow();
+    scanSummary.report(logger);
+    if (writeMetrics && propsByModule != null) {
+      writeMetrics(propsByModule);
+    }
+  }
+
+  /***
+   * Write the timings and counters of each module into its working path,
+   * and the reactor wide ones into the working path of the current project.
+   */
+  private void writeMetrics(Map<MavenProject, ModuleDescriptor> propsByModule) {
+    if (libraryCache != null) {
+      metrics.count(ScanMetrics.REACTOR, "cache.hits", libraryCache.getHits());
+      metrics.count(ScanMetrics.REACTOR, "cache.misses", libraryCache.getMisses());
+    }
+    for (ModuleDescriptor props : propsByModule.values()) {
+      if (metrics.hasModule(props.get(MavenProjectConverter.MODULE_KEY))) {
+        metrics.write(props.get(MavenProjectConverter.MODULE_KEY), getWorkingPath(props), moduleFileName(props), logger);
+      }
+    }
+    ModuleDescriptor currentProps = propsByModule.get(project);
+    if (currentProps != null) {
+      metrics.write(ScanMetrics.REACTOR, getWorkingPath(currentProps), "xvsa-reactor", logger);
+    }
+  }
+
+  /***
+   * Collect the modules reachable from the current project and run them
+   * on the module scheduler, in dependency order.
+   * @param propsByModule properties of each module
+   * @param current the top level project
+   * @throws MojoExecutionException
+   * @throws IOException
+   */
+  @SuppressWarnings("try")
+  private void processAllModules(Map<MavenProject, ModuleDescriptor> propsByModule, MavenProject current)
+    throws MojoExecutionException, IOException {
+    List<MavenProject> allModules = reactorModules(propsByModule);
+    if (isChangeScoped()) {
+      ChangeSet changeSet;
+      try (ScanMetrics.Timer ignored = metrics.time(ScanMetrics.REACTOR, "changes")) {
+        changeSet = ChangeSet.of(changed, since, project.getBasedir());
+        allModules = changeSet.select(allModules, propsByModule, logger);
+      }
+      metrics.count(ScanMetrics.REACTOR, "changes.files", changeSet.getFiles().size());
+      metrics.count(ScanMetrics.REACTOR, "changes.modules", allModules.size());
+    }
+    List<MavenProject> modules = allModules;
+    if (shard != null && !shard.trim().isEmpty()) {
+      if (invokeVsa && aggregateVsa) {
+        throw new MojoExecutionException("xvsa.vsa.aggregate analyzes the whole reactor, it cannot be combined with xvsa.shard");
+      }
+      modules = selectShard(ShardPlanner.Shard.parse(shard), allModules, propsByModule, propsByModule.get(current));
+    }
+    if (invokeVsa && aggregateVsa) {
+      // Analyze the whole reactor at once, after the front end of every module
+      ModuleScheduler scheduler = newScheduler();
+      Set<MavenProject> ready = ConcurrentHashMap.newKeySet();
+      scheduler.run(modules, module -> {
+        boolean proceed = processModule(module, propsByModule.get(module));
+        if (proceed) {
+          ready.add(module);
+        }
+        return proceed;
+      }, null);
+      List<ModuleDescriptor> readyProps = modules.stream().filter(ready::contains)
+        .map(propsByModule::get).collect(Collectors.toList());
+      boolean runXvsaSucc;
+      try (ScanMetrics.Timer ignored = metrics.time(ScanMetrics.REACTOR, "runXvsa.aggregate")) {
+        runXvsaSucc = runAggregateXvsa(propsByModule.get(current), readyProps);
+      }
+      if (!runXvsaSucc) {
+        logger.error("Run xvsa failed.");
+      }
     } else {
-      boolean runFrontEndSucc = runFrontEnd(currentProps);
-      if (!runFrontEndSucc) {
-        logger.error("Run front end failed.");
+      processModules(modules, propsByModule);
+    }
+  }
+
+  /***
+   * @return the modules reachable from the current project, parents before their modules
+   */
+  List<MavenProject> reactorModules(Map<MavenProject, ModuleDescriptor> propsByModule) throws MojoExecutionException {
+    List<MavenProject> allModules = new ArrayList<>();
+    collectModules(propsByModule, new HashSet<>(propsByModule.keySet()), project, "", allModules);
+    return allModules;
+  }
+
+  /***
+   * Run the front end, then xvsa if enabled, of the modules on the module scheduler.
+   */
+  void processModules(List<MavenProject> modules, Map<MavenProject, ModuleDescriptor> propsByModule)
+    throws MojoExecutionException {
+    newScheduler().run(modules,
+      module -> processModule(module, propsByModule.get(module)),
+      invokeVsa ? module -> analyzeModule(propsByModule.get(module)) : null);
+  }
+
+  private ModuleScheduler newScheduler() throws MojoExecutionException {
+    return new ModuleScheduler(logger, ModuleScheduler.parseThreads(threads), ModuleScheduler.parseThreads(vsaThreads), ignoreError);
+  }
+
+  /*** True if xvsa runs once over the whole reactor instead of once per module ***/
+  boolean isAggregate() {
+    return invokeVsa && aggregateVsa;
+  }
+
+  /*** True if only the modules of a change set are scanned ***/
+  boolean isChangeScoped() {
+    return (changed != null && !changed.trim().isEmpty()) || (since != null && !since.trim().isEmpty());
+  }
+
+  /*** True if a shard of the reactor is selected ***/
+  boolean isSharded() {
+    return shard != null && !shard.trim().isEmpty();
+  }
+
+  /***
+   * Keep the modules of one shard. Modules are balanced by their historical cost when
+   * xvsa.shard.costs is given, by the size of their classes and sources otherwise.
+   * The modules of the shard are written into the shard manifest, for the merge goal.
+   */
+  private List<MavenProject> selectShard(ShardPlanner.Shard selected, List<MavenProject> modules,
+                                         Map<MavenProject, ModuleDescriptor> propsByModule,
+                                         ModuleDescriptor rootProperties) throws MojoExecutionException {
+    Map<String, Long> history = Collections.emptyMap();
+    if (shardCosts != null && !shardCosts.trim().isEmpty()) {
+      try {
+        history = ShardPlanner.readCosts(new File(shardCosts));
+      } catch (IOException e) {
+        throw new XvsaPluginException("Cannot read shard costs : " + shardCosts, e);
+      }
+      if (history.isEmpty()) {
+        logger.warn("No module cost found in " + shardCosts + ", balancing shards by module size");
+      }
+    }
+    long averageCost = 0;
+    for (long cost : history.values()) {
+      averageCost += cost / history.size();
+    }
+    Map<String, Long> costs = new TreeMap<>();
+    for (MavenProject module : modules) {
+      ModuleDescriptor properties = propsByModule.get(module);
+      String moduleKey = properties.get(MavenProjectConverter.MODULE_KEY);
+      if (!history.isEmpty()) {
+        costs.put(moduleKey, history.getOrDefault(moduleKey, averageCost));
       } else {
-        if (invokeVsa) {
-          boolean runXvsaSucc = runXvsa(currentProps);
-          if (!runXvsaSucc) {
-            logger.error("Run xvsa failed.");
-          }
-        }
+        costs.put(moduleKey, moduleSize(properties));
       }
     }
-    propsByModule.remove(current);
+    Map<String, Integer> plan = ShardPlanner.assign(costs, selected.getCount());
+    List<MavenProject> shardModules = new ArrayList<>();
+    List<String> shardModuleKeys = new ArrayList<>();
+    long shardCost = 0;
+    long totalCost = 0;
+    for (MavenProject module : modules) {
+      String moduleKey = propsByModule.get(module).get(MavenProjectConverter.MODULE_KEY);
+      totalCost += costs.get(moduleKey);
+      if (plan.get(moduleKey) == selected.getIndex()) {
+        shardModules.add(module);
+        shardModuleKeys.add(moduleKey);
+        shardCost += costs.get(moduleKey);
+      }
+    }
+    logger.info("Shard " + selected + " : " + shardModules.size() + " of " + modules.size() + " modules, cost "
+      + shardCost + " of " + totalCost + (history.isEmpty() ? " bytes" : " ms"));
+    metrics.count(ScanMetrics.REACTOR, "shard.modules", shardModules.size());
+
+    String workingPath = rootProperties == null ? null : getWorkingPath(rootProperties);
+    if (workingPath != null) {
+      Properties manifest = new Properties();
+      manifest.setProperty("shard", selected.toString());
+      manifest.setProperty("modules", StringUtils.join(shardModuleKeys, SEPARATOR));
+      manifest.setProperty("total", String.valueOf(modules.size()));
+      // The library output lists hold absolute paths under it, the merge goal moves them
+      manifest.setProperty("dir", new File(workingPath).getAbsolutePath());
+      File manifestFile = new File(workingPath, ShardPlanner.MANIFEST_NAME);
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), StandardCharsets.UTF_8)) {
+        manifest.store(writer, "Modules of this shard, read by the merge goal");
+      } catch (IOException e) {
+        throw new XvsaPluginException("Cannot write shard manifest : " + manifestFile.getPath(), e);
+      }
+    }
+    return shardModules;
+  }
+
+  private Path collectModules(Map<MavenProject, ModuleDescriptor> propsByModule, Set<MavenProject> remaining,
+                              MavenProject current, String prefix, List<MavenProject> modules)
+    throws MojoExecutionException {
+    Path topLevelDir = current.getBasedir().toPath().toAbsolutePath();
+    if (propsByModule.get(current) == null) {
+      throw new MojoExecutionException("Cannot determine project structure");
+    }
+    modules.add(current);
+    remaining.remove(current);
     List<String> moduleIds = new ArrayList<>();
-    for (String modulePathStr : current.getModules()) {
-      File modulePath = new File(current.getBasedir(), modulePathStr);
-      MavenProject module = findMavenProject(modulePath, propsByModule.keySet());
-      if (module != null) {
+    for (MavenProject module : reactorIndex.getChildren(current)) {
+      if (remaining.contains(module)) {
         String moduleId = module.getGroupId() + ":" + module.getArtifactId();
-        Path topLevelModuleDir = processAllModules(propsByModule, module, prefix + moduleId + ".");
+        Path topLevelModuleDir = collectModules(propsByModule, remaining, module, prefix + moduleId + ".", modules);
         moduleIds.add(moduleId);
         if (!topLevelModuleDir.startsWith(topLevelDir)) {
           // Find common prefix
@@ -165,32 +545,71 @@ public class XvsaPluginMojo
     return topLevelDir;
   }
 
-  private MavenProject findMavenProject(final File modulePath, Collection<MavenProject> modules)
-    throws IOException {
-    File canonical = modulePath.getCanonicalFile();
-    if (canonical.isDirectory()) {
-      File pom = new File(canonical, "pom.xml");
-      for (MavenProject module : modules) {
-        if (module.getFile().getCanonicalFile().equals(pom)) {
-          return module;
-        }
-      }
-      for (MavenProject module : modules) {
-        if (module.getBasedir().equals(canonical)) {
-          return module;
-        }
-      }
-    } else {
-      for (MavenProject module : modules) {
-        if (module.getFile().getCanonicalFile().equals(canonical)) {
-          return module;
-        }
+  /***
+   * Front end stage of one module.
+   * @return true if the module object is ready to be analyzed
+   */
+  @SuppressWarnings("try")
+  private boolean processModule(MavenProject current, ModuleDescriptor currentProps) throws MojoExecutionException {
+    try (ScanMetrics.Timer ignored = metrics.time(currentProps.get(MavenProjectConverter.MODULE_KEY), ScanMetrics.TOTAL)) {
+      return runFrontEndStage(current, currentProps);
+    }
+  }
+
+  @SuppressWarnings("try")
+  private boolean runFrontEndStage(MavenProject current, ModuleDescriptor currentProps) throws MojoExecutionException {
+    logger.debug("Handle current project : " + current);
+    logger.debug("Handle baseDir : " + current.getBasedir());
+    logger.debug("Handle packaging : " + current.getPackaging());
+    if (logger.isDebugEnabled()) {
+      logger.debug("Properties : ");
+      currentProps.forEach((k, v) -> logger.debug("Key : " + k + ", value : " + v));
+    }
+    String moduleKey = currentProps.get(MavenProjectConverter.MODULE_KEY);
+    try (ScanMetrics.Timer ignored = metrics.time(moduleKey, "needToRun")) {
+      if (!needToRun(currentProps)) {
+        logger.debug("Ignore this module, no classes found.");
+        return false;
       }
     }
-    return null;
+    ModuleFileIndex index = moduleIndex(currentProps);
+    metrics.count(moduleKey, "classes", index.getClassCount());
+    metrics.count(moduleKey, "sourceFiles", index.getSourceFileCount());
+
+    // allow running without jfe
+    try (ScanMetrics.Timer ignored = metrics.time(moduleKey, "dumpProjectInfoToProperties")) {
+      dumpProjectInfoToProperties(currentProps);
+    }
+    if (skipJfe) {
+      // Dump source code info
+      logger.info("Dump properties completed, not running jfe.");
+      return false;
+    }
+    boolean runFrontEndSucc = runFrontEnd(currentProps);
+    if (!runFrontEndSucc) {
+      logger.error("Run front end failed.");
+    }
+    return runFrontEndSucc;
+  }
+
+  /***
+   * Analyzer stage of one module, runs once its front end stage succeeded.
+   */
+  @SuppressWarnings("try")
+  private boolean analyzeModule(ModuleDescriptor currentProps) throws MojoExecutionException {
+    boolean runXvsaSucc;
+    String moduleKey = currentProps.get(MavenProjectConverter.MODULE_KEY);
+    try (ScanMetrics.Timer total = metrics.time(moduleKey, ScanMetrics.TOTAL);
+         ScanMetrics.Timer ignored = metrics.time(moduleKey, "runXvsa")) {
+      runXvsaSucc = runXvsa(currentProps);
+    }
+    if (!runXvsaSucc) {
+      logger.error("Run xvsa failed.");
+    }
+    return runXvsaSucc;
   }
 
-  private boolean needToRun(Map<String, String> properties) {
+  private boolean needToRun(ModuleDescriptor properties) {
     // ignore module that the package type is pom
     // those modules are aggregation
     if (properties.containsKey(MavenProjectConverter.PROJECT_PACKING_TYPE)) {
@@ -205,25 +624,38 @@ public class XvsaPluginMojo
       return false;
     }
     File classFilesDirectory = new File(properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS));
-    if (!classFilesDirectory.exists() || !classFilesDirectory.isDirectory()) {
+    if (!fileIndex.isDirectory(classFilesDirectory)) {
       logger.debug("The module don't have class file.");
       return false;
     }
-    ArrayDeque<File> folderQueue = new ArrayDeque<>();
-    folderQueue.addLast(classFilesDirectory);
-    while (!folderQueue.isEmpty()) {
-      File parent = folderQueue.pop();
-      File[] files = parent.listFiles();
-      if (files == null) return false;
-      for (File f : files) {
-        if (f.isFile() && f.getName().endsWith(MavenProjectConverter.CLASS_SUFFIX)) {
-          return true;
-        } else if (f.isDirectory()) {
-          folderQueue.addLast(f);
-        }
+    return moduleIndex(properties).getClassCount() > 0;
+  }
+
+  /***
+   * Get the file system index of the module, its trees are walked only once per build.
+   * @param properties Maven Project Properties
+   * @return the index of the class directory and source roots
+   */
+  private ModuleFileIndex moduleIndex(ModuleDescriptor properties) {
+    return fileIndex.module(properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS),
+      properties.getSourceDirs().toArray(new String[0]));
+  }
+
+  /***
+   * Size of the classes and sources of the module, from full walks not using the directory stamps.
+   * The stamps may differ from one agent to the other, all shards have to compute the same plan.
+   * @param properties Maven Project Properties
+   * @return the size in bytes
+   */
+  private long moduleSize(ModuleDescriptor properties) {
+    String binDir = properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS);
+    long bytes = binDir == null ? 0 : fileIndex.tree(binDir).getClassBytes();
+    for (String srcDir : properties.getSourceDirs()) {
+      if (srcDir != null && !srcDir.isEmpty()) {
+        bytes += fileIndex.tree(srcDir).getSourceBytes();
       }
     }
-    return false;
+    return bytes;
   }
 
   private String getExecFilePath(String baseDir, String ...path) {
@@ -276,7 +708,8 @@ public class XvsaPluginMojo
     return outPath.getPath();
   }
 
-  private boolean runFrontEnd(Map<String, String> properties) throws MojoExecutionException {
+  @SuppressWarnings("try")
+  private boolean runFrontEnd(ModuleDescriptor properties) throws MojoExecutionException {
     assert !this.skipJfe; // We should not continue further if skipJfe is present
     logger.debug("Run front end, module : " + properties.get(MavenProjectConverter.MODULE_KEY));
     String execFilePath = getExecFilePath(xvsaInstallDir, "lib", "1.0", "mapfej");
@@ -294,7 +727,7 @@ public class XvsaPluginMojo
     List<String> libraryGenCmdList = new ArrayList<>();
 
     String mainBinDir = properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS);
-    if (mainBinDir == null || !(new File(mainBinDir)).exists()) {
+    if (mainBinDir == null || !fileIndex.exists(new File(mainBinDir))) {
       logger.debug("Run front end failed, main bin directory not exist, module : " +
         properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS));
       return false;
@@ -305,26 +738,28 @@ public class XvsaPluginMojo
     outputFileName = new File(workingPath, outputFileName).getAbsolutePath();
     applicationGenCmdList.add("-fB," + outputFileName);
 
-    // Add sources list in an apending mode
+    // Let the front end write the sources of this module to its own list,
+    // modules may run concurrently, the list is merged into the srclist afterwards
+    File moduleSrcListFile = null;
     if (srcListFilePath != null) {
-      SourceFileRecorder.i(srcListFilePath, logger).preRunGatherSourceList();
-      applicationGenCmdList.add(SourceFileRecorder.i(srcListFilePath, logger).getJfeOption());
+      moduleSrcListFile = new File(workingPath, properties.get(MavenProjectConverter.MODULE_KEY).replaceAll(":", "-") + ".srclist.json");
+      applicationGenCmdList.add(SourceFileRecorder.i(srcListFilePath, logger).getJfeOption(moduleSrcListFile));
     }
     // Add source dir to be scanned
-    String[] allSrcDirs = properties.get(MavenProjectConverter.PROJECT_SOURCE_DIRS).split(MavenProjectConverter.getSeperator());
-    if (allSrcDirs.length == 0) {
+    List<String> allSrcDirs = properties.getSourceDirs();
+    if (allSrcDirs.isEmpty()) {
       throw new MojoExecutionException("Run front error, No source directory found.");
     }
     // Pass down all source directory
     for (String srcDir : allSrcDirs) {
-      if (new File(srcDir).exists() && new File(srcDir).isDirectory()) {
+      if (fileIndex.isDirectory(new File(srcDir))) {
         applicationGenCmdList.add("-srcdir=" + srcDir);
       } else {
         logger.debug("Source directory not exists or is not directory, path : " + srcDir);
       }
     }
-    String[] allClazzPathDirs = properties.get(MavenProjectConverter.LIBRARIES).split(MavenProjectConverter.getSeperator());
-    if (allClazzPathDirs.length == 0) {
+    List<LibraryRegistry.Library> libraries = libraryRegistry.getLibraries(properties.get(MavenProjectConverter.MODULE_KEY));
+    if (libraries.isEmpty()) {
       logger.debug("No class path found, please check.");
     }
     // cmdList.add("-skip-no-source=false");
@@ -339,23 +774,61 @@ public class XvsaPluginMojo
       }
     }
 
-    for (String clazzPath : allClazzPathDirs) {
-      File clazzPathFile = new File(clazzPath);
-      if (!clazzPathFile.exists()) {
-        logger.debug("Class path not exists, path : " + clazzPathFile.getAbsolutePath());
+    for (LibraryRegistry.Library library : libraries) {
+      if (!library.exists()) {
+        logger.debug("Class path not exists, path : " + library.getFile().getPath());
       } else {
-        applicationGenCmdList.add("-cp=" + clazzPathFile.getAbsolutePath());
+        applicationGenCmdList.add("-cp=" + library.getFile().getPath());
       }
     }
 
     // Include all common command options
     applicationGenCmdList.addAll(cmdList);
-    runCmd(execFilePath, applicationGenCmdList, workingPath);
-    if (srcListFilePath != null) {
-      SourceFileRecorder.i(srcListFilePath, logger).postRunCollectSourceList();
+
+    // Skip the front end if nothing changed since the last successful run
+    ModuleFingerprint fingerprint = new ModuleFingerprint(workingPath,
+      properties.get(MavenProjectConverter.MODULE_KEY).replaceAll(":", "-"), logger);
+    String jfeFingerprint = null;
+    if (incremental) {
+      List<String> inputs = new ArrayList<>();
+      inputs.add(mainBinDir);
+      inputs.addAll(allSrcDirs);
+      for (LibraryRegistry.Library library : libraries) {
+        inputs.add(library.getFile().getPath());
+      }
+      List<String> arguments = new ArrayList<>(applicationGenCmdList);
+      arguments.add(LibraryCache.computeToolStamp(xvsaInstallDir));
+      jfeFingerprint = ModuleFingerprint.compute(fileIndex, inputs, arguments);
+    }
+    String moduleKey = properties.get(MavenProjectConverter.MODULE_KEY);
+    if (jfeFingerprint != null && fingerprint.matches(ModuleFingerprint.JFE_KEY, jfeFingerprint)
+        && new File(outputFileName).exists()) {
+      logger.info("Module unchanged since last run, skipping front end : " + moduleKey);
+      metrics.count(moduleKey, "frontEnd.skipped", 1);
+    } else {
+      ScanMetrics.Timer timer = metrics.time(moduleKey, "runFrontEnd");
+      fingerprint.record(ModuleFingerprint.JFE_KEY, null);
+      if (moduleSrcListFile != null && moduleSrcListFile.exists() && !moduleSrcListFile.delete()) {
+        throw new XvsaPluginException("Cannot delete module source list file : " + moduleSrcListFile.getPath());
+      }
+      try {
+        if (runCmd(execFilePath, applicationGenCmdList, workingPath, moduleFileName(properties) + ".jfe", jfeTimeout) && jfeFingerprint != null) {
+          fingerprint.record(ModuleFingerprint.JFE_KEY, jfeFingerprint);
+        }
+      } finally {
+        timer.close();
+      }
+    }
+    if (moduleSrcListFile != null) {
+      try (ScanMetrics.Timer ignored = metrics.time(moduleKey, "srclist.mergeSourceList")) {
+        SourceFileRecorder.i(srcListFilePath, logger).mergeSourceList(moduleSrcListFile);
+      }
     }
     // Generate the library V-Table objects for all dependencies, should use cache if possible
-    generateLibraryVTable(execFilePath, workingPath, cmdList, libraryGenCmdList, allClazzPathDirs, properties);
+    metrics.count(moduleKey, "jars", libraries.size());
+    try (ScanMetrics.Timer ignored = metrics.time(moduleKey, "generateLibraryVTable")) {
+      generateLibraryVTable(execFilePath, workingPath, cmdList, libraryGenCmdList, libraries, properties);
+    }
     return true;
   }
 
@@ -367,11 +840,12 @@ public class XvsaPluginMojo
    * @param workingPath output directory
    * @param cmdList basic cmd list
    * @param libraryOnlyCmdList library only cmd list
-   * @param allClazzPathDirs class path list
+   * @param libraries class path list, a library shared with other modules is generated by the first one
    * @param properties Maven Project Properties
    * @throws MojoExecutionException
    */
-  private void generateLibraryVTable(String execFilePath, String workingPath, List<String> cmdList, List<String> libraryOnlyCmdList, String[] allClazzPathDirs, Map<String, String> properties) throws MojoExecutionException {
+  @SuppressWarnings("try")
+  private void generateLibraryVTable(String execFilePath, String workingPath, List<String> cmdList, List<String> libraryOnlyCmdList, List<LibraryRegistry.Library> libraries, ModuleDescriptor properties) throws MojoExecutionException {
     if(!libGeneration) {
       logger.warn("Skipping all library V-Table generation for module");
       return;
@@ -386,35 +860,45 @@ public class XvsaPluginMojo
       libraryOnlyCmdList.add("-libFilter=" + oneCriteria);
     }
 
+    String moduleKey = properties.get(MavenProjectConverter.MODULE_KEY);
     List<String> generatedLibraries = new LinkedList<>();
-    // Lib filter applying
-    for (String clazzPath : allClazzPathDirs) {
-      File clazzPathFile = new File(clazzPath);
-      if (!clazzPathFile.exists() || clazzPathFile.isDirectory()) {
-        logger.warn("Library jar not exists or points to dir, path : " + clazzPathFile.getAbsolutePath());
+    List<LibraryJob> jobs = new ArrayList<>();
+    List<LibraryRegistry.Library> sharedLibraries = new ArrayList<>();
+    // Lib filter applying, decided once per library by the registry
+    for (LibraryRegistry.Library library : libraries) {
+      if (!library.isGenerated()) {
+        continue;
+      }
+      // The first module depending on a library generates it, the others reuse its output
+      File libOutputFile = new File(workingPath, library.getFile().getName().replaceAll(":", "-").replaceAll("\\.", "-") + ".o").getAbsoluteFile();
+      if (library.claim(libOutputFile, moduleKey)) {
+        jobs.add(new LibraryJob(library, libOutputFile));
       } else {
-        // Apply the library jar file / dir name filter
-        if (!isLibrarySelected(clazzPathFile))
-          continue;
-
-        // Add this library to the list for later use
-        String libOutputFileName = new File(workingPath, clazzPathFile.getName().replaceAll(":", "-").replaceAll("\\.", "-") + ".o").getAbsolutePath();
-        generatedLibraries.add(libOutputFileName);
-
-        // If we have processed this library in other modules, we will use the existing one
-        if (new File(libOutputFileName).exists()) {
-          logger.warn("Found formerly processed library " + clazzPathFile.getName() + ", under : " + libOutputFileName);
-          continue;
-        }
-
-        // Apply the library specific arguments.
-        logger.info("Generating V-Table for library : " + clazzPathFile.getName());
-        logger.info("Generating result under : " + libOutputFileName);
+        logger.debug("Library " + library + " is generated by module " + library.getOwner());
+        sharedLibraries.add(library);
+      }
+      // Add this library to the list for later use, in class path order
+      generatedLibraries.add(library.getOutput().getPath());
+    }
+    metrics.count(moduleKey, "libraries.shared", sharedLibraries.size());
 
-        List<String> thisLibraryCmdList = new ArrayList<>(libraryOnlyCmdList);
-        thisLibraryCmdList.add("-fC," + clazzPathFile.getAbsolutePath());
-        thisLibraryCmdList.add("-fB," + libOutputFileName);
-        runCmd(execFilePath, thisLibraryCmdList, workingPath);
+    List<Future<Boolean>> libraryRuns = new ArrayList<>();
+    List<String> runNames = new ArrayList<>();
+    int batchSize = libBatch == null ? 1 : Math.max(1, libBatch);
+    boolean finished = false;
+    try {
+      submitLibraryRuns(execFilePath, workingPath, libraryOnlyCmdList, jobs, batchSize, properties, libraryRuns, runNames);
+      waitForLibraryRuns(libraryRuns, runNames);
+      finished = true;
+    } finally {
+      // Release the modules waiting for the libraries of this one, whatever happened
+      for (LibraryJob job : jobs) {
+        job.library.generated(finished ? null : new XvsaPluginException("Library generation failed in module " + moduleKey));
+      }
+    }
+    try (ScanMetrics.Timer ignored = metrics.timeWait(moduleKey, "libraries.await")) {
+      for (LibraryRegistry.Library library : sharedLibraries) {
+        library.awaitGenerated();
       }
     }
     // Write the involved libraries for such target to a separate properties file.
@@ -422,25 +906,178 @@ public class XvsaPluginMojo
     writeListToFile(generatedLibraries, propertiesFile, "\n");
   }
 
+  /***
+   * Submit the libraries owned by a module to the library workers, in batches of batchSize libraries.
+   */
+  private void submitLibraryRuns(String execFilePath, String workingPath, List<String> libraryOnlyCmdList,
+                                 List<LibraryJob> jobs, int batchSize, ModuleDescriptor properties,
+                                 List<Future<Boolean>> libraryRuns, List<String> runNames) {
+    String moduleKey = properties.get(MavenProjectConverter.MODULE_KEY);
+    for (int start = 0; start < jobs.size(); start += batchSize) {
+      List<LibraryJob> batch = jobs.subList(start, Math.min(jobs.size(), start + batchSize));
+      List<File> outputs = batch.stream().map(job -> job.output).collect(Collectors.toList());
+      String batchName = batch.size() == 1 ? batch.get(0).output.getName()
+        : moduleFileName(properties) + "-batch-" + (start / batchSize);
+      runNames.add(batch.size() == 1 ? batch.get(0).output.getPath() : batchName);
+      // An output left by a previous build is reused, the guard also keeps
+      // concurrent builds sharing the resultDir from generating it twice
+      libraryRuns.add(libraryExecutor.submit(() -> !OutputFileGuard.generateAllIfAbsent(outputs, missing -> {
+        List<LibraryJob> pending = new ArrayList<>();
+        for (LibraryJob job : batch) {
+          if (missing.contains(job.output.getAbsoluteFile())) {
+            pending.add(job);
+          }
+        }
+        generateLibraries(execFilePath, workingPath, libraryOnlyCmdList, pending, moduleKey, batchName);
+      }).isEmpty()));
+    }
+  }
+
+  /* One library V-Table to generate */
+  private static class LibraryJob {
+    private final LibraryRegistry.Library library;
+    private final File jar;
+    private final File output;
+    private String cacheKey;
+
+    LibraryJob(LibraryRegistry.Library library, File output) {
+      this.library = library;
+      this.jar = library.getFile();
+      this.output = output;
+    }
+  }
+
+  /***
+   * Generate the V-Tables of libraries, restoring them from the cache when possible.
+   * Several libraries are generated by a single front end invocation, passing one -fC/-fB
+   * pair per library. Each output is checked afterwards, and the libraries the batch did
+   * not produce are generated alone, so one bad jar only fails itself.
+   * Outputs of a batch are not stored in the library cache, nothing tells which jar
+   * an output was generated from, an output written for the wrong jar would be reused
+   * by every later build.
+   */
+  @SuppressWarnings("try")
+  private void generateLibraries(String execFilePath, String workingPath, List<String> libraryOnlyCmdList,
+                                 List<LibraryJob> libraries, String moduleKey, String batchName) throws MojoExecutionException {
+    List<LibraryJob> pending = new ArrayList<>();
+    for (LibraryJob job : libraries) {
+      if (!restoreLibrary(job, libraryOnlyCmdList, moduleKey)) {
+        pending.add(job);
+      }
+    }
+    if (pending.size() <= 1) {
+      for (LibraryJob job : pending) {
+        generateLibrary(execFilePath, workingPath, libraryOnlyCmdList, job, moduleKey);
+      }
+      return;
+    }
+    List<String> batchCmdList = new ArrayList<>(libraryOnlyCmdList);
+    for (LibraryJob job : pending) {
+      batchCmdList.add("-fC," + job.jar.getAbsolutePath());
+      batchCmdList.add("-fB," + job.output.getAbsolutePath());
+    }
+    logger.info("Generating V-Table for " + pending.size() + " libraries in one invocation : "
+      + pending.stream().map(job -> job.jar.getName()).collect(Collectors.joining(", ")));
+    boolean succeeded;
+    try (ScanMetrics.Timer ignored = metrics.timeLibrary(moduleKey, batchName)) {
+      succeeded = runBatchCmd(execFilePath, batchCmdList, workingPath, batchName + ".lib",
+        libTimeout > 0 ? libTimeout * pending.size() : 0);
+    }
+    metrics.count(moduleKey, "libraries.batches", 1);
+    for (LibraryJob job : pending) {
+      if (succeeded && job.output.isFile() && job.output.length() > 0) {
+        metrics.count(moduleKey, "libraries.generated", 1);
+      } else {
+        // Outputs of a failed batch may be incomplete
+        if (job.output.exists() && !job.output.delete()) {
+          throw new XvsaPluginException("Cannot delete incomplete library output : " + job.output.getPath());
+        }
+        logger.warn("Library " + job.jar.getName() + " not generated by batch " + batchName + ", generating it alone");
+        metrics.count(moduleKey, "libraries.batchFallbacks", 1);
+        generateLibrary(execFilePath, workingPath, libraryOnlyCmdList, job, moduleKey);
+      }
+    }
+  }
+
+  private boolean restoreLibrary(LibraryJob job, List<String> libraryOnlyCmdList, String moduleKey) {
+    job.cacheKey = libraryCache == null ? null : libraryCache.key(job.jar, libraryOnlyCmdList);
+    if (job.cacheKey != null && libraryCache.restore(job.cacheKey, job.output)) {
+      logger.info("Found cached V-Table for library : " + job.jar.getName());
+      metrics.count(moduleKey, "cache.hits", 1);
+      return true;
+    }
+    return false;
+  }
+
+  private void generateLibrary(String execFilePath, String workingPath, List<String> libraryOnlyCmdList,
+                               LibraryJob job, String moduleKey) throws MojoExecutionException {
+    List<String> thisLibraryCmdList = new ArrayList<>(libraryOnlyCmdList);
+    thisLibraryCmdList.add("-fC," + job.jar.getAbsolutePath());
+    thisLibraryCmdList.add("-fB," + job.output.getAbsolutePath());
+    ScanMetrics.Timer timer = metrics.timeLibrary(moduleKey, job.jar.getName());
+    logger.info("Generating V-Table for library : " + job.jar.getName());
+    logger.info("Generating result under : " + job.output.getAbsolutePath());
+    boolean succeeded;
+    try {
+      succeeded = runCmd(execFilePath, thisLibraryCmdList, workingPath, job.output.getName() + ".lib", libTimeout);
+    } finally {
+      timer.close();
+    }
+    metrics.count(moduleKey, "libraries.generated", 1);
+    if (succeeded && job.cacheKey != null) {
+      libraryCache.store(job.cacheKey, job.output);
+    }
+  }
+
+  private void waitForLibraryRuns(List<Future<Boolean>> libraryRuns, List<String> runNames) throws MojoExecutionException {
+    MojoExecutionException failure = null;
+    Iterator<String> names = runNames.iterator();
+    for (Future<Boolean> run : libraryRuns) {
+      String libOutputFileName = names.next();
+      try {
+        if (!run.get()) {
+          logger.warn("Found formerly processed library under : " + libOutputFileName);
+        }
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof MojoExecutionException ? (MojoExecutionException) e.getCause() :
+            new MojoExecutionException("Generating library failed : " + libOutputFileName, e.getCause());
+          libraryRuns.forEach(f -> f.cancel(true));
+        }
+      } catch (CancellationException e) {
+        logger.debug("Generating library cancelled : " + libOutputFileName);
+      } catch (InterruptedException e) {
+        libraryRuns.forEach(f -> f.cancel(true));
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException("Interrupted while generating libraries");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static String moduleFileName(ModuleDescriptor properties) {
+    return properties.get(MavenProjectConverter.MODULE_KEY).replaceAll(":", "-");
+  }
+
   /***
    * Dump the project info to separate files in the result folder
    * @param properties Maven Project Properties
    * @throws MojoExecutionException
    */
-  private void dumpProjectInfoToProperties(Map<String, String> properties) throws MojoExecutionException {
+  @SuppressWarnings("try")
+  private void dumpProjectInfoToProperties(ModuleDescriptor properties) throws MojoExecutionException {
     String workingPath = getWorkingPath(properties);
-    String[] allClazzPathDirs = properties.get(MavenProjectConverter.LIBRARIES).split(MavenProjectConverter.getSeperator());
 
     // Write the library jar files used for generating this module
     logger.info("Dump the library jar files list");
     File objectSubsidiaryFile = new File(workingPath, properties.get(MavenProjectConverter.MODULE_KEY).replaceAll(":", "-") + ".lib.list").getAbsoluteFile();
     List<String> lst =  new ArrayList<>();
-    for (String cp: allClazzPathDirs) {
-      // making sure that the file exist and is a valid file, not a directory in some cases
-      if (cp == null) continue;
-      File clazzPathFile = new File(cp);
-      if (clazzPathFile.exists()){
-        lst.add(new File(cp).getAbsolutePath());
+    for (LibraryRegistry.Library library : libraryRegistry.getLibraries(properties.get(MavenProjectConverter.MODULE_KEY))) {
+      // making sure that the file exist, stat-ed once per build by the registry
+      if (library.exists()) {
+        lst.add(library.getFile().getPath());
       }
     }
     writeListToFile(lst, objectSubsidiaryFile, "\n");
@@ -456,19 +1093,19 @@ public class XvsaPluginMojo
     File projectSrcRootListFile = new File(workingPath, properties.get(MavenProjectConverter.MODULE_KEY).replaceAll(":", "-") + ".src.list").getAbsoluteFile();
     writeListToFile(project.getCompileSourceRoots(), projectSrcRootListFile, "\n");
 
-    String[] allSrcDirs = properties.get(MavenProjectConverter.PROJECT_SOURCE_DIRS).split(MavenProjectConverter.getSeperator());
-    if (allSrcDirs.length == 0) {
+    List<String> allSrcDirs = properties.getSourceDirs();
+    if (allSrcDirs.isEmpty()) {
       logger.error(new MojoExecutionException("Run front error, No source directory found."));
     } else {
       // Dump source files list
       if (srcListFilePath == null) {
         logger.warn("Src list not given, skip dumping the source code lists");
       } else {
-        Arrays.stream(allSrcDirs).forEach(dir -> logger.info("Source dir: " + dir));
+        allSrcDirs.forEach(dir -> logger.info("Source dir: " + dir));
         logger.info("Dumping the source code files into : " + srcListFilePath);
-        SourceFileRecorder.i(srcListFilePath, logger).preRunGatherSourceList();
-        SourceFileRecorder.i(srcListFilePath, logger).addFilesInFolder(allSrcDirs);
-        SourceFileRecorder.i(srcListFilePath, logger).postRunCollectSourceList();
+        try (ScanMetrics.Timer ignored = metrics.time(properties.get(MavenProjectConverter.MODULE_KEY), "srclist.addSourceFolders")) {
+          SourceFileRecorder.i(srcListFilePath, logger).addSourceFolders(allSrcDirs.toArray(new String[0]), fileIndex);
+        }
       }
     }
   }
@@ -510,7 +1147,7 @@ public class XvsaPluginMojo
    * @param jarFileName: File
    * @return true = needed to generate, false otherwise
    */
-  private boolean isLibrarySelected(File jarFileName) {
+  static boolean isLibrarySelected(File jarFileName, String[] libJarFilter, boolean excludeAllLibrariesByDefault) {
     boolean librarySelected = excludeAllLibrariesByDefault;
     for (String oneCriteria : libJarFilter) {
       if (jarFileName.getName().startsWith(oneCriteria)) {
@@ -522,7 +1159,7 @@ public class XvsaPluginMojo
     return librarySelected;
   }
 
-  private boolean runXvsa(Map<String, String> properties) throws MojoExecutionException {
+  private boolean runXvsa(ModuleDescriptor properties) throws MojoExecutionException {
     logger.debug("Run xvsa, module : " + properties.get(MavenProjectConverter.MODULE_KEY));
     String execFilePath = getExecFilePath(xvsaInstallDir, "bin", "xvsa");
     if (execFilePath == null) {
@@ -544,24 +1181,123 @@ public class XvsaPluginMojo
       logger.debug("Run xfsa failed, whirl file not exists, whirl file path : " + whirlFile);
       return false;
     }
+    List<String> cmdList = xvsaCmdList(moduleKey.replaceAll(":", "-"));
+    cmdList.add(whirlFile.getPath());
+    if (!rtPath.equals("") && (new File(rtPath)).exists()) {
+      cmdList.add(rtPath);
+    }
+
+    // Skip the analyzer if neither the module object nor the options changed
+    ModuleFingerprint fingerprint = new ModuleFingerprint(workingPath, moduleKey.replaceAll(":", "-"), logger);
+    String xvsaFingerprint = null;
+    if (incremental && incrementalVsa) {
+      xvsaFingerprint = ModuleFingerprint.compute(fileIndex, Arrays.asList(execFilePath, whirlFile.getPath(), rtPath), cmdList);
+      if (fingerprint.matches(ModuleFingerprint.XVSA_KEY, xvsaFingerprint)) {
+        logger.info("Module object unchanged since last run, skipping xvsa : " + moduleKey);
+        return true;
+      }
+    }
+    fingerprint.record(ModuleFingerprint.XVSA_KEY, null);
+    if (runCmd(execFilePath, cmdList, workingPath, moduleKey.replaceAll(":", "-") + ".xvsa", xvsaTimeout) && xvsaFingerprint != null) {
+      fingerprint.record(ModuleFingerprint.XVSA_KEY, xvsaFingerprint);
+    }
+    return true;
+  }
+
+  private List<String> xvsaCmdList(String outputName) {
     List<String> cmdList = new ArrayList<>();
     cmdList.add("-xfa");
     cmdList.add("-VSA:certj=1");
     cmdList.add("-VSA:exp=1");
     cmdList.add("-VSA:new_npd=1");
     cmdList.add("-o");
-    cmdList.add(moduleKey.replaceAll(":", "-"));
+    cmdList.add(outputName);
     cmdList.add("-kp");
     cmdList.add("-sw");
     if (json) {
       cmdList.add("-json");
     }
-    cmdList.add(whirlFile.getPath());
+    return cmdList;
+  }
+
+  /***
+   * Analyze all modules in a single xvsa run, with the objects of every module and of
+   * their libraries, so the runtime and the class hierarchy are loaded once for the reactor
+   * and call chains across modules are followed.
+   * @param rootProperties properties of the top level project, the run happens in its working path
+   * @param readyModules properties of the modules whose front end succeeded
+   */
+  private boolean runAggregateXvsa(ModuleDescriptor rootProperties, List<ModuleDescriptor> readyModules)
+    throws MojoExecutionException {
+    String execFilePath = getExecFilePath(xvsaInstallDir, "bin", "xvsa");
+    if (execFilePath == null) {
+      logger.debug("Run xvsa failed, can't find exec file.");
+      return false;
+    }
+    String workingPath = rootProperties == null ? null : getWorkingPath(rootProperties);
+    if (workingPath == null) {
+      logger.error("Working path is null.");
+      return false;
+    }
+    Set<String> moduleObjects = new LinkedHashSet<>();
+    Set<String> libraryObjects = new LinkedHashSet<>();
+    for (ModuleDescriptor properties : readyModules) {
+      String moduleWorkingPath = getWorkingPath(properties);
+      if (moduleWorkingPath == null) {
+        continue;
+      }
+      File whirlFile = new File(moduleWorkingPath, moduleFileName(properties) + ".o");
+      if (!whirlFile.exists()) {
+        logger.debug("Whirl file not exists, skipped from the aggregate run : " + whirlFile);
+        continue;
+      }
+      moduleObjects.add(whirlFile.getAbsolutePath());
+      File libraryList = new File(moduleWorkingPath, moduleFileName(properties) + ".lib.output.list");
+      if (libraryList.exists()) {
+        try {
+          for (String library : Files.readAllLines(libraryList.toPath(), StandardCharsets.UTF_8)) {
+            if (!library.trim().isEmpty() && new File(library.trim()).exists()) {
+              libraryObjects.add(library.trim());
+            }
+          }
+        } catch (IOException e) {
+          throw new XvsaPluginException("Cannot read library output list : " + libraryList.getPath(), e);
+        }
+      }
+    }
+    if (moduleObjects.isEmpty()) {
+      logger.info("No module object to analyze.");
+      return true;
+    }
+    List<String> cmdList = xvsaCmdList(AGGREGATE_NAME);
+    cmdList.addAll(moduleObjects);
+    cmdList.addAll(libraryObjects);
     if (!rtPath.equals("") && (new File(rtPath)).exists()) {
       cmdList.add(rtPath);
     }
+    metrics.count(ScanMetrics.REACTOR, "aggregate.modules", moduleObjects.size());
+    metrics.count(ScanMetrics.REACTOR, "aggregate.libraries", libraryObjects.size());
+    logger.info("Analyzing " + moduleObjects.size() + " modules with " + libraryObjects.size()
+      + " library objects in a single xvsa run");
 
-    runCmd(execFilePath, cmdList, workingPath);
+    ModuleFingerprint fingerprint = new ModuleFingerprint(workingPath, AGGREGATE_NAME, logger);
+    String xvsaFingerprint = null;
+    if (incremental && incrementalVsa) {
+      List<String> inputs = new ArrayList<>();
+      inputs.add(execFilePath);
+      inputs.addAll(moduleObjects);
+      inputs.addAll(libraryObjects);
+      inputs.add(rtPath);
+      xvsaFingerprint = ModuleFingerprint.compute(fileIndex, inputs, cmdList);
+      if (fingerprint.matches(ModuleFingerprint.XVSA_KEY, xvsaFingerprint)) {
+        logger.info("Module objects unchanged since last run, skipping xvsa");
+        return true;
+      }
+    }
+    fingerprint.record(ModuleFingerprint.XVSA_KEY, null);
+    if (runCmd(execFilePath, cmdList, workingPath, AGGREGATE_NAME + ".xvsa", xvsaTimeout) && xvsaFingerprint != null) {
+      fingerprint.record(ModuleFingerprint.XVSA_KEY, xvsaFingerprint);
+    }
     return true;
   }
 
@@ -570,7 +1306,7 @@ public class XvsaPluginMojo
    * @param properties Properties to be used for default directory.
    * @return Nullable String, the working path to generate .o files or .v files.
    */
-  private String getWorkingPath(Map<String, String> properties) {
+  private String getWorkingPath(ModuleDescriptor properties) {
     String workingPath;
     if (resultDir != null) {
       if (!new File(resultDir).exists()) {
@@ -597,36 +1333,75 @@ public class XvsaPluginMojo
     }
   }
 
-  private void runCmd(String execFilePath, List<String> cmdList, String workingDirectory) throws MojoExecutionException {
-    final StreamConsumer consumer = line -> logger.debug(line);
-    // Add a command-line consumer to report all stdout to logger.debug
-    Commandline cl = new Commandline();
-    cl.addArguments(cmdList.toArray(new String[]{}));
-    cl.setExecutable(execFilePath);
-    cl.setWorkingDirectory(workingDirectory);
-    try {
-      cl.addSystemEnvironment();
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new MojoExecutionException("Cannot get system environment variables, unknown cause " + e.getMessage());
-    }
-    logger.debug("Working directory : " + cl.getWorkingDirectory());
-    logger.debug("Invoke cmd : " + cl.toString());
+  /***
+   * Run the command, failures only throw if errors are not ignored.
+   * The output goes to a log file named after the invocation under the working directory.
+   * @param logName name of the invocation, e.g. module key and tool
+   * @param timeoutSeconds the process tree is killed after this time, 0 for no limit
+   * @return true if the command exited normally with 0
+   */
+  private boolean runCmd(String execFilePath, List<String> cmdList, String workingDirectory, String logName,
+                         long timeoutSeconds) throws MojoExecutionException {
+    File logFile = Paths.get(workingDirectory, XVSA_LOG_DIR, logName + ".log").toFile();
     try {
-      int retNumber = CommandLineUtils.executeCommandLine(cl, consumer, consumer);
+      int retNumber = commandRunner.run(execFilePath, cmdList, workingDirectory, logFile, timeoutSeconds);
+      if (retNumber != 0) {
+        commandRunner.reportFailure(logFile);
+      }
       if (retNumber != 0 && !ignoreError)
-        throw new MojoExecutionException("Invoke xvsa failed, return number : " + retNumber);
-      else if (ignoreError)
-        logger.warn("Invoke xvsa failed, yet continue, return number : " + retNumber);
-    } catch (CommandLineException e) {
+        throw new MojoExecutionException("Invoke xvsa failed, return number : " + retNumber + ", see " + logFile.getPath());
+      else if (retNumber != 0) {
+        logger.warn("Invoke xvsa failed, yet continue, return number : " + retNumber + ", see " + logFile.getPath());
+        return false;
+      }
+    } catch (IOException e) {
       e.printStackTrace();
       if (!ignoreError) {
         logger.error("Error: " + e.getLocalizedMessage());
         throw new MojoExecutionException("Invoke xvsa failed.");
       } else {
         logger.warn("Invoke xvsa failed, ignoring... with exception " + e.getLocalizedMessage());
+        return false;
+      }
+    } catch (TimeoutException e) {
+      scanSummary.recordTimeout(logName, timeoutSeconds);
+      commandRunner.reportFailure(logFile);
+      if (!ignoreError) {
+        throw new MojoExecutionException("Invoke xvsa timed out after " + timeoutSeconds + "s, see " + logFile.getPath());
       }
+      logger.warn("Invoke xvsa timed out after " + timeoutSeconds + "s, yet continue, see " + logFile.getPath());
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Invoke xvsa interrupted, see " + logFile.getPath());
     }
     logger.debug("Invoke successful.");
+    return true;
+  }
+
+  /***
+   * Run a batch invocation, failures are only reported, the caller checks the outputs.
+   * @return true if the invocation exited normally
+   */
+  private boolean runBatchCmd(String execFilePath, List<String> cmdList, String workingDirectory, String logName,
+                              long timeoutSeconds) throws MojoExecutionException {
+    File logFile = Paths.get(workingDirectory, XVSA_LOG_DIR, logName + ".log").toFile();
+    try {
+      int retNumber = commandRunner.run(execFilePath, cmdList, workingDirectory, logFile, timeoutSeconds);
+      if (retNumber != 0) {
+        logger.warn("Batch invocation failed, return number : " + retNumber + ", see " + logFile.getPath());
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      logger.warn("Batch invocation failed with exception " + e.getLocalizedMessage());
+      return false;
+    } catch (TimeoutException e) {
+      logger.warn("Batch invocation timed out after " + timeoutSeconds + "s, see " + logFile.getPath());
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Invoke xvsa interrupted, see " + logFile.getPath());
+    }
   }
 }
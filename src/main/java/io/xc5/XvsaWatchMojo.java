@@ -0,0 +1,99 @@
+package io.xc5;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.*;
+import org.apache.maven.project.MavenProject;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/*** Goal which keeps running, and processes again the modules whose classes or sources changed .***/
+
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.COMPILE, requiresDependencyCollection = ResolutionScope.COMPILE, requiresDirectInvocation = true)
+@Execute(lifecycle = "xvsa", phase = LifecyclePhase.COMPILE)
+public class XvsaWatchMojo
+        extends XvsaPluginMojo {
+
+  /* Quiet delay ending a burst of changes, in ms */
+  @Parameter(property = "xvsa.watch.debounce", readonly = true, defaultValue = "500")
+  private Long debounceMillis = 500L;
+
+  /* Number of change cycles before stopping, 0 to run until interrupted */
+  @Parameter(property = "xvsa.watch.cycles", readonly = true, defaultValue = "0")
+  private Integer maxCycles = 0;
+
+  /***
+   * Process all modules once, then wait for changes and process the changed modules,
+   * with the configuration computed at the start.
+   */
+  @Override
+  public void execute() throws MojoExecutionException {
+    Log logger = getLog();
+    if (isAggregate() || isSharded() || isChangeScoped()) {
+      throw new MojoExecutionException("xvsa:watch processes the changed modules only, "
+        + "it cannot be combined with xvsa.vsa.aggregate, xvsa.shard, xvsa.changed or xvsa.since");
+    }
+    start();
+    Map<MavenProject, ModuleDescriptor> propsByModule = null;
+    try (ModuleWatcher<MavenProject> watcher = new ModuleWatcher<>(logger)) {
+      propsByModule = configureReactor();
+      List<MavenProject> modules = reactorModules(propsByModule);
+      for (MavenProject module : modules) {
+        ModuleDescriptor properties = propsByModule.get(module);
+        String binDir = properties.get(MavenProjectConverter.JAVA_PROJECT_MAIN_BINARY_DIRS);
+        if (binDir != null) {
+          watcher.watch(Paths.get(binDir), module);
+        }
+        for (String srcDir : properties.getSourceDirs()) {
+          watcher.watch(Paths.get(srcDir), module);
+        }
+      }
+      logger.info("Watching " + watcher.getDirectoryCount() + " directories of " + modules.size() + " modules");
+      runCycle(modules, propsByModule);
+      for (int cycle = 1; maxCycles <= 0 || cycle <= maxCycles; cycle++) {
+        Set<MavenProject> changed = watcher.take(debounceMillis);
+        // Keep the reactor order, the scheduler prefers it
+        List<MavenProject> affected = modules.stream().filter(changed::contains).collect(Collectors.toList());
+        logger.info("Changes found in " + affected.size() + " modules : "
+          + affected.stream().map(MavenProject::getArtifactId).collect(Collectors.joining(", ")));
+        refresh(propsByModule);
+        runCycle(affected, propsByModule);
+      }
+    } catch (IOException e) {
+      throw new XvsaPluginException("Cannot watch the module directories", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.info("Watch interrupted");
+    } finally {
+      stop(propsByModule);
+    }
+  }
+
+  /***
+   * Process the modules, a failure is reported and the watch goes on.
+   */
+  private void runCycle(List<MavenProject> modules, Map<MavenProject, ModuleDescriptor> propsByModule)
+    throws MojoExecutionException {
+    long started = System.nanoTime();
+    startSourceList();
+    try {
+      processModules(modules, propsByModule);
+    } catch (MojoExecutionException e) {
+      getLog().error("Processing modules failed, waiting for the next change : " + e.getMessage());
+    } finally {
+      try {
+        finishSourceList();
+      } catch (XvsaPluginException e) {
+        getLog().error("Writing the srclist failed, waiting for the next change : " + e.getMessage());
+      }
+    }
+    getLog().info("Processed " + modules.size() + " modules in "
+      + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms, waiting for changes");
+  }
+}